@@ -10,6 +10,12 @@ public class AdminDashboard extends JFrame {
     private JTextField newUserField;
     private JPasswordField newPassField;
     private JComboBox<String> userTypeCombo;
+    private javax.swing.table.DefaultTableModel metricsModel;
+    // Refreshes the Diagnostics tab while the window is open
+    private Timer metricsTimer;
+    // User list, metrics and saves are read and written off the EDT
+    private final UiScheduler scheduler = new UiScheduler(error ->
+        JOptionPane.showMessageDialog(this, error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
 
     // Color scheme
     private Color primaryColor = new Color(103, 58, 183);  // Deep Purple
@@ -67,8 +73,13 @@ public class AdminDashboard extends JFrame {
         // User List Panel
         contentPanel.add(createUserListPanel());
 
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        tabs.addTab("Users", contentPanel);
+        tabs.addTab("Diagnostics", createDiagnosticsPanel());
+
         add(headerPanel, BorderLayout.NORTH);
-        add(contentPanel, BorderLayout.CENTER);
+        add(tabs, BorderLayout.CENTER);
 
         setSize(800, 500);
         setLocationRelativeTo(null);
@@ -100,7 +111,8 @@ public class AdminDashboard extends JFrame {
     private void updateComponentColors(Container container) {
         for (Component c : container.getComponents()) {
             if (c instanceof JPanel) {
-                c.setBackground(c.getParent() == getContentPane() ? backgroundColor : cardColor);
+                boolean outer = c.getParent() == getContentPane() || c.getParent() instanceof JTabbedPane;
+                c.setBackground(outer ? backgroundColor : cardColor);
                 updateComponentColors((Container) c);
             } else if (c instanceof JLabel) {
                 c.setForeground(textColor);
@@ -207,6 +219,76 @@ public class AdminDashboard extends JFrame {
         return panel;
     }
 
+    // Every metric from Metrics (also published over JMX), refreshed once a second
+    private JPanel createDiagnosticsPanel() {
+        JPanel outer = new JPanel(new BorderLayout());
+        outer.setBackground(backgroundColor);
+        outer.setBorder(new EmptyBorder(0, 20, 20, 20));
+
+        JPanel panel = new JPanel(new BorderLayout(0, 10));
+        panel.setBackground(cardColor);
+        panel.setBorder(BorderFactory.createCompoundBorder(
+            new RoundedBorder(15),
+            new EmptyBorder(20, 20, 20, 20)
+        ));
+
+        JLabel titleLabel = new JLabel("Diagnostics");
+        titleLabel.setFont(new Font("Segoe UI", Font.BOLD, 20));
+        titleLabel.setForeground(primaryColor);
+
+        metricsModel = new javax.swing.table.DefaultTableModel(new Object[]{"Metric", "Value"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable metricsTable = new JTable(metricsModel);
+        metricsTable.setFont(new Font("Monospaced", Font.PLAIN, 13));
+        metricsTable.setRowHeight(24);
+        metricsTable.setBackground(cardColor);
+        metricsTable.getColumnModel().getColumn(0).setPreferredWidth(180);
+        metricsTable.getColumnModel().getColumn(1).setPreferredWidth(520);
+
+        JScrollPane scrollPane = new JScrollPane(metricsTable);
+        scrollPane.setBorder(null);
+
+        panel.add(titleLabel, BorderLayout.NORTH);
+        panel.add(scrollPane, BorderLayout.CENTER);
+        outer.add(panel, BorderLayout.CENTER);
+
+        refreshMetrics();
+        metricsTimer = new Timer(1000, e -> refreshMetrics());
+        metricsTimer.start();
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                metricsTimer.stop();
+                scheduler.close();
+            }
+        });
+        return outer;
+    }
+
+    private void refreshMetrics() {
+        scheduler.submit("metrics", () -> {
+            java.util.List<Object[]> rows = new java.util.ArrayList<>();
+            for (Metrics.Metric metric : Metrics.all()) {
+                rows.add(new Object[]{metric.getName(), metric.summary()});
+            }
+            return rows;
+        }, rows -> {
+            for (int i = 0; i < rows.size(); i++) {
+                if (i < metricsModel.getRowCount()) {
+                    metricsModel.setValueAt(rows.get(i)[0], i, 0);
+                    metricsModel.setValueAt(rows.get(i)[1], i, 1);
+                } else {
+                    metricsModel.addRow(rows.get(i));
+                }
+            }
+            metricsModel.setRowCount(rows.size());
+        });
+    }
+
     private void styleTextField(JTextField field) {
         field.setMaximumSize(new Dimension(Integer.MAX_VALUE, 35));
         field.setFont(new Font("Segoe UI", Font.PLAIN, 14));
@@ -268,16 +350,22 @@ public class AdminDashboard extends JFrame {
             return;
         }
 
-        boolean success = userManager.addUser(username, password, 
-            userType.equals("Admin") ? "ADMIN" : "REGULAR");
-
-        if (success) {
-            newUserField.setText("");
-            newPassField.setText("");
-            userTypeCombo.setSelectedIndex(0);
-            refreshUserList();
-            JOptionPane.showMessageDialog(this, "User added successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
-        }
+        scheduler.submit(null, () -> userManager.addUser(username, password, userType.equals("Admin") ? "ADMIN" : "REGULAR").join(),
+            success -> {
+                if (success) {
+                    refreshUserList();
+                    JOptionPane.showMessageDialog(this, "User added successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
+                } else {
+                    JOptionPane.showMessageDialog(this, "Username already exists", "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            },
+            error -> JOptionPane.showMessageDialog(this, "User could not be saved: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+
+        // The password is hashed and saved in the background; the list
+        // refreshes once the user is added
+        newUserField.setText("");
+        newPassField.setText("");
+        userTypeCombo.setSelectedIndex(0);
     }
 
     private void deleteSelectedUser() {
@@ -299,19 +387,32 @@ public class AdminDashboard extends JFrame {
             JOptionPane.YES_NO_OPTION);
 
         if (confirm == JOptionPane.YES_OPTION) {
-            if (userManager.deleteUser(username)) {
-                refreshUserList();
-                JOptionPane.showMessageDialog(this, "User deleted successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
-            }
+            scheduler.submit(null, () -> userManager.deleteUser(username).join(),
+                deleted -> {
+                    refreshUserList();
+                    if (deleted) {
+                        JOptionPane.showMessageDialog(this, "User deleted successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    }
+                },
+                error -> {
+                    refreshUserList();
+                    JOptionPane.showMessageDialog(this, "User could not be deleted: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                });
         }
     }
 
     private void refreshUserList() {
-        userListModel.clear();
-        for (User user : userManager.getAllUsers()) {
-            userListModel.addElement(String.format("%s (%s)", 
-                user.getUsername(), 
-                user instanceof AdminUser ? "Admin" : "Regular User"));
-        }
+        scheduler.submit("users", () -> {
+            java.util.List<String> rows = new java.util.ArrayList<>();
+            for (User user : userManager.getAllUsers()) {
+                rows.add(String.format("%s (%s)",
+                    user.getUsername(),
+                    user instanceof AdminUser ? "Admin" : "Regular User"));
+            }
+            return rows;
+        }, rows -> {
+            userListModel.clear();
+            userListModel.addAll(rows);
+        });
     }
-}
\ No newline at end of file
+}
@@ -1,3 +1,23 @@
+import java.util.concurrent.CompletableFuture;
+
 public interface Authenticator {
     boolean authenticate(String username, String password);
+
+    default CompletableFuture<Boolean> authenticateAsync(String username, String password) {
+        return CompletableFuture.supplyAsync(() -> authenticate(username, password));
+    }
+
+    // The credential to store for a new password
+    default CompletableFuture<String> hash(String password) {
+        return CompletableFuture.completedFuture(password);
+    }
+
+    // Same, for bulk work nobody is waiting on; must not hold up logins
+    default CompletableFuture<String> hashInBackground(String password) {
+        return hash(password);
+    }
+
+    // Forget anything cached for a deleted or changed account
+    default void invalidate(String username) {
+    }
 }
@@ -0,0 +1,148 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Struct-of-arrays storage: one primitive column per field instead of one
+// object per record. Type, category and username are dictionary-encoded,
+// descriptions go through a shared pool, and timestamps are kept as epoch
+// millis (LocalDateTime read as UTC), so views carry millisecond precision.
+public class ColumnarRecordStore implements RecordStore {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final byte TOMBSTONE = 0;
+
+    // Columns are replaced, never resized in place, and published through
+    // volatile fields so concurrent readers see either the old or new copy
+    private volatile long[] ids = new long[INITIAL_CAPACITY];
+    private volatile double[] amounts = new double[INITIAL_CAPACITY];
+    private volatile long[] timestamps = new long[INITIAL_CAPACITY];
+    // Type id + 1, so that 0 marks a removed slot
+    private volatile byte[] types = new byte[INITIAL_CAPACITY];
+    private volatile int[] categoryIds = new int[INITIAL_CAPACITY];
+    private volatile int[] usernameIds = new int[INITIAL_CAPACITY];
+    private volatile int[] descriptionIds = new int[INITIAL_CAPACITY];
+
+    private final StringPool typePool = new StringPool();
+    private final StringPool categoryPool = new StringPool();
+    private final StringPool usernamePool = new StringPool();
+    private final StringPool descriptionPool = new StringPool();
+
+    // Written after the row it covers
+    private volatile int slotCount;
+    private volatile int liveCount;
+
+    @Override
+    public int add(FinancialRecord record) {
+        int typeId = typePool.idOf(record.getType());
+        if (typeId >= Byte.MAX_VALUE) {
+            throw new IllegalStateException("Too many distinct record types: " + record.getType());
+        }
+        ensureCapacity(slotCount + 1);
+
+        int slot = slotCount;
+        ids[slot] = record.getId();
+        amounts[slot] = record.getAmount();
+        timestamps[slot] = record.getDateTime().toInstant(ZoneOffset.UTC).toEpochMilli();
+        types[slot] = (byte) (typeId + 1);
+        categoryIds[slot] = categoryPool.idOf(record.getCategory());
+        usernameIds[slot] = usernamePool.idOf(record.getUsername());
+        descriptionIds[slot] = descriptionPool.idOf(record.getDescription());
+        liveCount++;
+        slotCount = slot + 1;
+        return slot;
+    }
+
+    @Override
+    public FinancialRecord get(int slot) {
+        if (slot >= slotCount) {
+            return null;
+        }
+        byte type = types[slot];
+        if (type == TOMBSTONE) {
+            return null;
+        }
+        FinancialRecord record = new FinancialRecord(
+            amounts[slot],
+            typePool.valueOf(type - 1),
+            descriptionPool.valueOf(descriptionIds[slot]),
+            categoryPool.valueOf(categoryIds[slot]),
+            usernamePool.valueOf(usernameIds[slot]),
+            LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamps[slot]), ZoneOffset.UTC));
+        record.setId(ids[slot]);
+        return record;
+    }
+
+    @Override
+    public long idAt(int slot) {
+        if (slot >= slotCount || types[slot] == TOMBSTONE) {
+            return 0;
+        }
+        return ids[slot];
+    }
+
+    @Override
+    public String usernameAt(int slot) {
+        if (slot >= slotCount || types[slot] == TOMBSTONE) {
+            return null;
+        }
+        return usernamePool.valueOf(usernameIds[slot]);
+    }
+
+    @Override
+    public void remove(int slot) {
+        if (slot < slotCount && types[slot] != TOMBSTONE) {
+            types[slot] = TOMBSTONE;
+            liveCount--;
+        }
+    }
+
+    @Override
+    public int size() {
+        return liveCount;
+    }
+
+    @Override
+    public int slotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public List<FinancialRecord> toList() {
+        int count = slotCount;
+        List<FinancialRecord> list = new ArrayList<>(liveCount);
+        for (int slot = 0; slot < count; slot++) {
+            FinancialRecord record = get(slot);
+            if (record != null) {
+                list.add(record);
+            }
+        }
+        return list;
+    }
+
+    // Goes through get/add so the pools only keep strings still in use
+    @Override
+    public ColumnarRecordStore compact(int[] remap) {
+        ColumnarRecordStore compacted = new ColumnarRecordStore();
+        for (int slot = 0; slot < remap.length; slot++) {
+            FinancialRecord record = get(slot);
+            remap[slot] = record == null ? -1 : compacted.add(record);
+        }
+        return compacted;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= amounts.length) {
+            return;
+        }
+        int capacity = Math.max(required, amounts.length + (amounts.length >> 1));
+        ids = Arrays.copyOf(ids, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        types = Arrays.copyOf(types, capacity);
+        categoryIds = Arrays.copyOf(categoryIds, capacity);
+        usernameIds = Arrays.copyOf(usernameIds, capacity);
+        descriptionIds = Arrays.copyOf(descriptionIds, capacity);
+    }
+}
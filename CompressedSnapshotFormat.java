@@ -0,0 +1,369 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Columnar, compressed record snapshot, written through SnapshotFile:
+//
+//   magic, version, journal generation
+//   block*: raw length, compressed length, Deflate bytes
+//   0
+//
+// Each block holds up to BLOCK_RECORDS records, column by column:
+// strings new to the dictionary, id deltas, timestamp deltas (epoch
+// seconds) and nanos, amounts as cents where exact, then dictionary ids
+// for type, category and username, and the descriptions. The dictionary
+// carries over from block to block, so each distinct username or category
+// is stored once per file. Writing and reading hold one block at a time.
+//
+// Either format reads both, so a data file switches over at its next
+// compaction (-Dfinance.snapshot=compressed), and back.
+public class CompressedSnapshotFormat implements SnapshotFormat {
+    private static final int MAGIC = 0x46525A31; // "FRZ1"
+    private static final int VERSION = 1;
+    private static final int BLOCK_RECORDS = 8192;
+    // Amounts that aren't a whole number of cents are stored as raw bits
+    private static final long RAW_AMOUNT = 1;
+
+    private final Supplier<RecordStore> storeFactory;
+
+    public CompressedSnapshotFormat(Supplier<RecordStore> storeFactory) {
+        this.storeFactory = storeFactory;
+    }
+
+    @Override
+    public Snapshot read(Path file) throws IOException {
+        return SnapshotFile.read(file, in -> readEither(in, storeFactory));
+    }
+
+    // Tells the formats apart by the magic; SerializedSnapshotFormat reads
+    // through here too, so dropping the property keeps files readable
+    static Snapshot readEither(InputStream in, Supplier<RecordStore> storeFactory) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 4);
+        byte[] head = pushback.readNBytes(4);
+        pushback.unread(head);
+        if (head.length < 4 || ByteBuffer.wrap(head).getInt() != MAGIC) {
+            return SerializedSnapshotFormat.readFrom(pushback, storeFactory);
+        }
+        return decode(new DataInputStream(pushback), storeFactory);
+    }
+
+    @Override
+    public RecordStore emptyStore() {
+        return storeFactory.get();
+    }
+
+    @Override
+    public void write(Path file, List<FinancialRecord> records, long generation) throws IOException {
+        SnapshotFile.write(file, out -> {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(generation);
+            Encoder encoder = new Encoder(data);
+            for (int start = 0; start < records.size(); start += BLOCK_RECORDS) {
+                encoder.block(records.subList(start, Math.min(records.size(), start + BLOCK_RECORDS)));
+            }
+            encoder.finish();
+            data.writeInt(0);
+            data.flush();
+        });
+    }
+
+    private static Snapshot decode(DataInputStream in, Supplier<RecordStore> storeFactory) throws IOException {
+        in.readInt();
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        long generation = in.readLong();
+        RecordStore store = storeFactory.get();
+        List<String> dictionary = new ArrayList<>();
+        Inflater inflater = new Inflater();
+        try {
+            long id = 0;
+            long seconds = 0;
+            byte[] raw = new byte[0];
+            byte[] compressed = new byte[0];
+            while (true) {
+                int rawLength = in.readInt();
+                if (rawLength == 0) {
+                    break;
+                }
+                int compressedLength = in.readInt();
+                if (rawLength < 0 || compressedLength < 0) {
+                    throw new IOException("Corrupt snapshot block");
+                }
+                if (compressed.length < compressedLength) {
+                    compressed = new byte[compressedLength];
+                }
+                // One spare byte, so a block longer than it claims is caught
+                if (raw.length <= rawLength) {
+                    raw = new byte[rawLength + 1];
+                }
+                in.readFully(compressed, 0, compressedLength);
+                inflater.reset();
+                inflater.setInput(compressed, 0, compressedLength);
+                try {
+                    int length = 0;
+                    while (!inflater.finished() && length <= rawLength) {
+                        int inflated = inflater.inflate(raw, length, rawLength + 1 - length);
+                        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        length += inflated;
+                    }
+                    if (length != rawLength || !inflater.finished()) {
+                        throw new IOException("Corrupt snapshot block");
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt snapshot block: " + e.getMessage(), e);
+                }
+                ByteBuffer block = ByteBuffer.wrap(raw, 0, rawLength);
+
+                int count = readVarInt(block);
+                int added = readVarInt(block);
+                for (int i = 0; i < added; i++) {
+                    dictionary.add(readString(block));
+                }
+                long[] ids = new long[count];
+                for (int i = 0; i < count; i++) {
+                    id += readZigZag(block);
+                    ids[i] = id;
+                }
+                long[] times = new long[count];
+                for (int i = 0; i < count; i++) {
+                    seconds += readZigZag(block);
+                    times[i] = seconds;
+                }
+                int[] nanos = new int[count];
+                for (int i = 0; i < count; i++) {
+                    nanos[i] = readVarInt(block);
+                }
+                double[] amounts = new double[count];
+                for (int i = 0; i < count; i++) {
+                    long amount = readZigZag(block);
+                    amounts[i] = amount == RAW_AMOUNT ? Double.longBitsToDouble(block.getLong()) : (amount >> 1) / 100.0;
+                }
+                String[] types = readEntries(block, dictionary, count);
+                String[] categories = readEntries(block, dictionary, count);
+                String[] usernames = readEntries(block, dictionary, count);
+                for (int i = 0; i < count; i++) {
+                    FinancialRecord record = new FinancialRecord(amounts[i], types[i], readString(block),
+                        categories[i], usernames[i],
+                        LocalDateTime.ofEpochSecond(times[i], nanos[i], ZoneOffset.UTC));
+                    record.setId(ids[i]);
+                    store.add(record);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Buffer underflow or a dictionary id out of range
+            throw new IOException("Corrupt snapshot block: " + e, e);
+        } finally {
+            inflater.end();
+        }
+        return new Snapshot(store, generation);
+    }
+
+    private static String[] readEntries(ByteBuffer block, List<String> dictionary, int count) {
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            int entry = readVarInt(block);
+            values[i] = entry == 0 ? null : dictionary.get(entry - 1);
+        }
+        return values;
+    }
+
+    // Writes one block at a time; the dictionary and the running id and
+    // timestamp carry over between blocks
+    private static final class Encoder {
+        private final DataOutputStream out;
+        private final StringPool dictionary = new StringPool();
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final Columns block = new Columns();
+        private byte[] compressed = new byte[0];
+        private long id;
+        private long seconds;
+
+        Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void block(List<FinancialRecord> records) throws IOException {
+            int known = dictionary.size();
+            int[] types = entries(records, FinancialRecord::getType);
+            int[] categories = entries(records, FinancialRecord::getCategory);
+            int[] usernames = entries(records, FinancialRecord::getUsername);
+
+            block.reset();
+            block.writeVarInt(records.size());
+            block.writeVarInt(dictionary.size() - known);
+            for (int i = known; i < dictionary.size(); i++) {
+                block.writeString(dictionary.valueOf(i));
+            }
+            for (FinancialRecord record : records) {
+                block.writeZigZag(record.getId() - id);
+                id = record.getId();
+            }
+            for (FinancialRecord record : records) {
+                long time = record.getDateTime().toEpochSecond(ZoneOffset.UTC);
+                block.writeZigZag(time - seconds);
+                seconds = time;
+            }
+            for (FinancialRecord record : records) {
+                block.writeVarInt(record.getDateTime().getNano());
+            }
+            for (FinancialRecord record : records) {
+                double amount = record.getAmount();
+                long cents = Math.round(amount * 100);
+                if (cents / 100.0 == amount && Math.abs(cents) < (1L << 60)) {
+                    block.writeZigZag(cents << 1);
+                } else {
+                    block.writeZigZag(RAW_AMOUNT);
+                    block.writeLong(Double.doubleToRawLongBits(amount));
+                }
+            }
+            for (int[] column : new int[][] {types, categories, usernames}) {
+                for (int entry : column) {
+                    block.writeVarInt(entry);
+                }
+            }
+            for (FinancialRecord record : records) {
+                block.writeString(record.getDescription());
+            }
+
+            deflater.reset();
+            deflater.setInput(block.bytes(), 0, block.size());
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, Math.max(1 << 16, length * 2));
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            out.writeInt(block.size());
+            out.writeInt(length);
+            out.write(compressed, 0, length);
+        }
+
+        // 0 for null, dictionary id + 1 otherwise
+        private int[] entries(List<FinancialRecord> records, Function<FinancialRecord, String> column) {
+            int[] entries = new int[records.size()];
+            for (int i = 0; i < entries.length; i++) {
+                String value = column.apply(records.get(i));
+                entries[i] = value == null ? 0 : dictionary.idOf(value) + 1;
+            }
+            return entries;
+        }
+
+        void finish() {
+            deflater.end();
+        }
+    }
+
+    // Growable byte buffer for one block's columns
+    private static final class Columns extends ByteArrayOutputStream {
+        Columns() {
+            super(1 << 16);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (value >>> shift));
+            }
+        }
+
+        // Length + 1, so that 0 can stand for null
+        void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(utf8.length + 1);
+            write(utf8, 0, utf8.length);
+        }
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        return (int) readVarLong(in);
+    }
+
+    private static long readZigZag(ByteBuffer in) {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    // Converts a serialized data file in place, keeping its generation
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java CompressedSnapshotFormat <financial_records.dat>");
+            System.exit(1);
+        }
+        Path file = Path.of(args[0]);
+        CompressedSnapshotFormat format = new CompressedSnapshotFormat(ListRecordStore::new);
+        Snapshot snapshot = format.read(file);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        format.write(temp, snapshot.store.toList(), snapshot.generation);
+        SnapshotFile.install(temp, file);
+        System.out.printf("Wrote %d records to %s%n", snapshot.store.size(), file);
+    }
+}
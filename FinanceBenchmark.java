@@ -0,0 +1,263 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntToLongFunction;
+
+// Micro-benchmarks for the FinanceManager and UserManager hot paths at
+// growing data set sizes. Each case is warmed up, then run for a fixed time
+// while per-call latency and allocated bytes are sampled; results are
+// printed and written as JSON so runs can be diffed between releases.
+//
+// Usage: java FinanceBenchmark [--records 1000,100000,...] [--users 10,1000,...]
+//                              [--seconds 2] [--out benchmark-results.json]
+//
+// A quick check without a build; benchmarks/ runs the same cases under JMH
+// with forks and the GC profiler.
+public class FinanceBenchmark {
+    private static final String[] CATEGORIES = {"Salary", "Food", "Transport", "Entertainment", "Other"};
+    private static final int LATENCY_SAMPLES = 1 << 16;
+    static final String PASSWORD = "benchmark-password";
+
+    private final long measureNanos;
+    private final long warmupNanos;
+    private final List<String> results = new ArrayList<>();
+    private final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // Results are folded in here so the JIT cannot drop the calls
+    private long sink;
+
+    private FinanceBenchmark(int seconds) {
+        this.measureNanos = seconds * 1_000_000_000L;
+        this.warmupNanos = measureNanos / 2;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] recordCounts = {1_000, 100_000, 1_000_000, 10_000_000};
+        int[] userCounts = {10, 1_000, 100_000};
+        int seconds = 2;
+        String out = "benchmark-results.json";
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--records": recordCounts = parseList(args[i + 1]); break;
+                case "--users": userCounts = parseList(args[i + 1]); break;
+                case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+                case "--out": out = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        FinanceBenchmark benchmark = new FinanceBenchmark(seconds);
+        Path dir = Files.createTempDirectory("finance-bench");
+        for (int users : userCounts) {
+            benchmark.runUserManager(dir, users);
+            for (int records : recordCounts) {
+                benchmark.runFinanceManager(dir, records, users);
+                benchmark.runSnapshots(dir, records, users);
+            }
+        }
+        benchmark.writeJson(out);
+        System.out.println("Results written to " + out);
+    }
+
+    private void runFinanceManager(Path dir, int recordCount, int userCount) throws IOException {
+        String dataFile = dir.resolve("records-" + recordCount + "-" + userCount + ".dat").toString();
+        writeRecordSnapshot(dataFile, recordCount, userCount);
+        FinanceManager manager = new FinanceManager(dataFile);
+        String[] names = usernames(userCount);
+        String params = "\"records\": " + recordCount + ", \"users\": " + userCount
+            + ", \"store\": \"" + System.getProperty("finance.store", "heap") + "\"";
+
+        run("FinanceManager.getUserRecords", params, i -> manager.getUserRecords(names[i % userCount]).size());
+        run("FinanceManager.getTotalIncome", params, i -> (long) manager.getTotalIncome(names[i % userCount]));
+        run("FinanceManager.getTotalExpense", params, i -> (long) manager.getTotalExpense(names[i % userCount]));
+        LocalDateTime now = LocalDateTime.now();
+        run("FinanceManager.addRecord", params, i -> {
+            manager.addRecord(record(i, userCount, now));
+            return i;
+        });
+    }
+
+    // Whole-snapshot writes: the pre-journal saveRecords() path (unbuffered
+    // ObjectOutputStream on the live file, no fsync) against the current
+    // format through SnapshotFile (checksummed, fsynced, renamed into place),
+    // then the serialized and compressed formats against each other, with
+    // the file size in the params
+    private void runSnapshots(Path dir, int recordCount, int userCount) throws IOException {
+        List<FinancialRecord> records = new ArrayList<>(recordCount);
+        LocalDateTime start = LocalDateTime.now().minusYears(5);
+        for (int i = 0; i < recordCount; i++) {
+            records.add(record(i, userCount, start.plusSeconds(i * 37L)));
+        }
+        Path legacy = dir.resolve("legacy-" + recordCount + ".dat");
+        Path target = dir.resolve("snapshot-" + recordCount + ".dat");
+        Path temp = dir.resolve("snapshot-" + recordCount + ".dat.tmp");
+        String params = "\"records\": " + recordCount + ", \"users\": " + userCount;
+
+        run("Snapshot.writeLegacy", params, i -> {
+            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(legacy.toFile()))) {
+                oos.writeObject(records);
+                oos.writeLong(i);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return i;
+        });
+        runSnapshot("serialized", new SerializedSnapshotFormat(ListRecordStore::new), records, params, temp, target);
+        runSnapshot("compressed", new CompressedSnapshotFormat(ListRecordStore::new), records, params, temp, target);
+    }
+
+    private void runSnapshot(String name, SnapshotFormat format, List<FinancialRecord> records, String params,
+                             Path temp, Path target) throws IOException {
+        String formatParams = params + ", \"format\": \"" + name + "\"";
+        run("Snapshot.write", formatParams, i -> {
+            try {
+                format.write(temp, records, i);
+                SnapshotFile.install(temp, target);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return i;
+        });
+        run("Snapshot.read", formatParams + ", \"bytes\": " + Files.size(target), i -> {
+            try {
+                return format.read(target).store.size();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void runUserManager(Path dir, int userCount) throws IOException {
+        String dataFile = dir.resolve("users-" + userCount + ".dat").toString();
+        String[] names = usernames(userCount);
+        writeUsers(dataFile, names);
+        UserManager manager = new UserManager(dataFile);
+        String params = "\"users\": " + userCount;
+
+        run("UserManager.getUser", params, i -> manager.getUser(names[i % userCount]) != null ? 1 : 0);
+        run("UserManager.authenticate", params, i -> {
+            return manager.authenticate(names[i % userCount], PASSWORD) ? 1 : 0;
+        });
+    }
+
+    private void run(String name, String params, IntToLongFunction operation) {
+        // Warmup
+        long deadline = System.nanoTime() + warmupNanos;
+        int i = 0;
+        while (System.nanoTime() < deadline) {
+            sink += operation.applyAsLong(i++);
+        }
+
+        long[] latencies = new long[LATENCY_SAMPLES];
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        deadline = start + measureNanos;
+        long ops = 0;
+        long now = start;
+        while (now < deadline) {
+            long opStart = now;
+            sink += operation.applyAsLong(i++);
+            now = System.nanoTime();
+            latencies[(int) (ops++ & (LATENCY_SAMPLES - 1))] = now - opStart;
+        }
+        long elapsed = now - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        int samples = (int) Math.min(ops, LATENCY_SAMPLES);
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        double throughput = ops * 1e9 / elapsed;
+        double p50 = percentile(sorted, 0.50) / 1e3;
+        double p99 = percentile(sorted, 0.99) / 1e3;
+        double p999 = percentile(sorted, 0.999) / 1e3;
+        double allocPerOp = (double) allocated / ops;
+
+        System.out.printf(Locale.ROOT, "%-32s %-50s %14.1f ops/s  p50 %9.2f us  p99 %9.2f us  %10.1f B/op%n",
+            name, params.replace("\"", ""), throughput, p50, p99, allocPerOp);
+        results.add(String.format(Locale.ROOT,
+            "  {\"benchmark\": \"%s\", \"params\": {%s}, \"ops\": %d, \"throughputOpsPerSec\": %.3f, "
+                + "\"latencyMicros\": {\"p50\": %.3f, \"p99\": %.3f, \"p999\": %.3f, \"max\": %.3f}, "
+                + "\"allocBytesPerOp\": %.1f}",
+            name, params, ops, throughput, p50, p99, p999, sorted[samples - 1] / 1e3, allocPerOp));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    private void writeJson(String file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Path.of(file)))) {
+            writer.println("[");
+            writer.println(String.join(",\n", results));
+            writer.println("]");
+        }
+        // Keeps the sink alive
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    // The data set builders below are shared with the JMH module in benchmarks/
+
+    // Builds the snapshot directly; going through addRecord would journal
+    // every row and dominate setup time at the larger sizes
+    static void writeRecordSnapshot(String dataFile, int recordCount, int userCount) throws IOException {
+        List<FinancialRecord> records = new ArrayList<>(recordCount);
+        LocalDateTime start = LocalDateTime.now().minusYears(5);
+        for (int i = 0; i < recordCount; i++) {
+            records.add(record(i, userCount, start.plusSeconds(i * 37L)));
+        }
+        try (ObjectOutputStream oos = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(dataFile), 1 << 16))) {
+            oos.writeObject(records);
+        }
+    }
+
+    // Every account gets PASSWORD, hashed once at the current cost, so
+    // loading doesn't start hashing plaintext in the background
+    static void writeUsers(String dataFile, String[] names) throws IOException {
+        String credential = new Pbkdf2Authenticator(null).hash(PASSWORD).join();
+        List<User> users = new ArrayList<>(names.length);
+        for (String name : names) {
+            users.add(new RegularUser(name, credential));
+        }
+        try (ObjectOutputStream oos = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(dataFile)))) {
+            oos.writeObject(users);
+        }
+    }
+
+    static FinancialRecord record(int i, int userCount, LocalDateTime dateTime) {
+        return new FinancialRecord(i % 1000 + 0.99, i % 4 == 0 ? "INCOME" : "EXPENSE", "Transaction " + i,
+            CATEGORIES[i % CATEGORIES.length], username(i % userCount), dateTime);
+    }
+
+    private static String username(int i) {
+        return "user" + i;
+    }
+
+    static String[] usernames(int userCount) {
+        String[] names = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            names[i] = username(i);
+        }
+        return names;
+    }
+
+    private static int[] parseList(String value) {
+        return Arrays.stream(value.split(",")).mapToInt(s -> Integer.parseInt(s.trim().replace("_", ""))).toArray();
+    }
+}
@@ -0,0 +1,109 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Java Flight Recorder events for record mutations, file I/O, dashboard
+// refreshes and logins, so UI stalls can be lined up with the I/O behind
+// them in a recording. finance.jfc (next to the classes) enables them:
+//
+//   java -XX:StartFlightRecording=settings=finance.jfc,filename=finance.jfr Main
+//
+// Callers follow the same pattern everywhere:
+//
+//   FinanceEvents.RecordMutation event = new FinanceEvents.RecordMutation();
+//   event.begin();
+//   ...
+//   if (event.shouldCommit()) { set fields; event.commit(); }
+//
+// With JFR off, shouldCommit() is false and the JIT removes the allocation,
+// so the cost is a timestamp read and a branch.
+public final class FinanceEvents {
+    private FinanceEvents() {
+    }
+
+    @Name("finance.RecordMutation")
+    @Label("Record Mutation")
+    @Category({"Finance", "Records"})
+    @Description("Record added to or deleted from FinanceManager, including indexing and journaling")
+    public static class RecordMutation extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Username")
+        public String username;
+
+        @Label("Record Id")
+        @Description("Id of the record, or of the first one in a batch")
+        public long recordId;
+
+        @Label("Batch Size")
+        public int batchSize;
+
+        @Label("Stored Records")
+        @Description("Live records in the store afterwards")
+        public int storedRecords;
+    }
+
+    @Name("finance.FileIo")
+    @Label("File Save/Load")
+    @Category({"Finance", "Persistence"})
+    @Description("Whole-file write or read of a record snapshot or users.dat")
+    public static class FileIo extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("File")
+        public String file;
+
+        @Label("Entries")
+        public int entries;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("finance.JournalFlush")
+    @Label("Journal Flush")
+    @Category({"Finance", "Persistence"})
+    @Description("Batch of journal frames written and fsynced")
+    public static class JournalFlush extends Event {
+        @Label("Frames")
+        public int frames;
+
+        @Label("Bytes Written")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("finance.UiRefresh")
+    @Label("Dashboard Refresh")
+    @Category({"Finance", "UI"})
+    @Description("Dashboard table refresh on the event dispatch thread")
+    public static class UiRefresh extends Event {
+        @Label("View")
+        public String view;
+
+        @Label("Rows")
+        public int rows;
+    }
+
+    @Name("finance.Authentication")
+    @Label("Authentication")
+    @Category({"Finance", "Users"})
+    @Description("Password check for a login")
+    public static class Authentication extends Event {
+        @Label("Username")
+        public String username;
+
+        @Label("Success")
+        public boolean success;
+
+        @Label("Cached")
+        @Description("Answered from the verified-session cache without hashing")
+        public boolean cached;
+    }
+}
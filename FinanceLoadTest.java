@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Closed-loop load test for FinanceServer: each client sends one request,
+// waits for the reply, and sends the next, for --seconds after --warmup.
+// Clients share --users accounts (logged in once each) and mix
+//   60% GET /api/records?limit=50, 20% GET /api/totals,
+//   15% POST /api/records, 5% DELETE of a record the client added.
+// Prints requests/sec and latency percentiles per operation and overall.
+//
+// Without --url it starts a server on a temporary data directory and
+// creates the users and --records records for each first.
+//
+// Usage: java FinanceLoadTest [--clients 1000] [--seconds 20] [--warmup 5]
+//                             [--users 50] [--records 2000] [--url http://host:port]
+public class FinanceLoadTest {
+    private static final String[] OPERATIONS = {"list", "totals", "add", "delete"};
+    private static final String[] CATEGORIES = {"Food", "Rent", "Travel", "Salary", "Utilities", "Other"};
+    private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+    private static final Pattern TOKEN = Pattern.compile("\"token\":\"([^\"]+)\"");
+
+    private final HttpClient client;
+    private final String url;
+    private final Map<String, Metrics.Timer> timers = new ConcurrentSkipListMap<>();
+    private final Metrics.Timer all = Metrics.timer("loadtest.all");
+    private final AtomicLong errors = new AtomicLong();
+    private final Map<Integer, AtomicLong> statuses = new ConcurrentSkipListMap<>();
+    private volatile long measureFrom;
+    private volatile long stopAt;
+
+    private FinanceLoadTest(HttpClient client, String url) {
+        this.client = client;
+        this.url = url;
+        for (String operation : OPERATIONS) {
+            timers.put(operation, Metrics.timer("loadtest." + operation));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = 1000;
+        int seconds = 20;
+        int warmup = 5;
+        int users = 50;
+        int records = 2000;
+        String url = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--clients": clients = Integer.parseInt(args[i + 1]); break;
+                case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+                case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+                case "--users": users = Integer.parseInt(args[i + 1]); break;
+                case "--records": records = Integer.parseInt(args[i + 1]); break;
+                case "--url": url = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        FinanceServer server = null;
+        if (url == null) {
+            server = startServer(users, records);
+            url = "http://127.0.0.1:" + server.getPort();
+        }
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor("loadtest", 16);
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(30))
+            .executor(executor)
+            .build();
+        FinanceLoadTest test = new FinanceLoadTest(client, url);
+
+        String[] tokens = new String[users];
+        for (int u = 0; u < users; u++) {
+            tokens[u] = test.login("load" + u, "pass" + u);
+        }
+
+        System.out.printf("%d clients, %d users, %ds warmup + %ds against %s%n",
+            clients, users, warmup, seconds, url);
+        long now = System.nanoTime();
+        test.measureFrom = now + warmup * 1_000_000_000L;
+        test.stopAt = test.measureFrom + seconds * 1_000_000_000L;
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            CompletableFuture<Void> finished = new CompletableFuture<>();
+            done.add(finished);
+            test.next(tokens[c % users], new ArrayDeque<>(), finished);
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+
+        test.report(seconds);
+        if (server != null) {
+            server.stop(0);
+        }
+        executor.shutdownNow();
+    }
+
+    private static FinanceServer startServer(int users, int records) throws IOException {
+        Path dir = Files.createTempDirectory("finance-load");
+        UserManager userManager = new UserManager(dir.resolve("users.dat").toString());
+        FinanceManager financeManager = new FinanceManager(dir.resolve("financial_records.dat").toString());
+        System.out.printf("Creating %d users with %d records each in %s%n", users, records, dir);
+        LocalDateTime start = LocalDateTime.now().minusDays(365);
+        for (int u = 0; u < users; u++) {
+            String username = "load" + u;
+            // One at a time: the authenticator's hashing queue is bounded
+            userManager.addUser(username, "pass" + u, "REGULAR").join();
+            List<FinancialRecord> batch = new ArrayList<>(records);
+            for (int r = 0; r < records; r++) {
+                batch.add(record(username, start.plusMinutes(r * 263L)));
+            }
+            financeManager.addRecords(batch).join();
+        }
+        FinanceServer server = new FinanceServer(userManager, financeManager, new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+        return server;
+    }
+
+    private static FinancialRecord record(String username, LocalDateTime dateTime) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+        return new FinancialRecord(1 + random.nextInt(500), random.nextInt(5) == 0 ? "INCOME" : "EXPENSE",
+            category + " payment " + random.nextInt(1000), category, username, dateTime);
+    }
+
+    private String login(String username, String password) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url + "/api/login"))
+            .POST(HttpRequest.BodyPublishers.ofString(
+                "{\"username\":" + FinanceServer.quote(username) + ",\"password\":" + FinanceServer.quote(password) + "}"))
+            .build(), HttpResponse.BodyHandlers.ofString());
+        Matcher matcher = TOKEN.matcher(response.body());
+        if (response.statusCode() != 200 || !matcher.find()) {
+            throw new IllegalStateException("Login failed for " + username + ": " + response.body());
+        }
+        return matcher.group(1);
+    }
+
+    // One client's loop: send the next request when the previous one is done
+    private void next(String token, ArrayDeque<Long> added, CompletableFuture<Void> finished) {
+        long start = System.nanoTime();
+        if (start - stopAt >= 0) {
+            finished.complete(null);
+            return;
+        }
+        int pick = ThreadLocalRandom.current().nextInt(100);
+        String operation;
+        HttpRequest.Builder request;
+        if (pick < 60) {
+            operation = "list";
+            request = HttpRequest.newBuilder(URI.create(url + "/api/records?limit=50")).GET();
+        } else if (pick < 80) {
+            operation = "totals";
+            request = HttpRequest.newBuilder(URI.create(url + "/api/totals")).GET();
+        } else if (pick < 95 || added.isEmpty()) {
+            operation = "add";
+            FinancialRecord record = record("", LocalDateTime.now());
+            request = HttpRequest.newBuilder(URI.create(url + "/api/records")).POST(HttpRequest.BodyPublishers.ofString(
+                "{\"amount\":" + record.getAmount() + ",\"type\":\"" + record.getType() + "\",\"category\":"
+                    + FinanceServer.quote(record.getCategory()) + ",\"description\":"
+                    + FinanceServer.quote(record.getDescription()) + "}"));
+        } else {
+            operation = "delete";
+            request = HttpRequest.newBuilder(URI.create(url + "/api/records/" + added.poll())).DELETE();
+        }
+        request.header("Authorization", "Bearer " + token).timeout(Duration.ofSeconds(60));
+        client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            long elapsed = System.nanoTime() - start;
+            if (start - measureFrom >= 0) {
+                timers.get(operation).record(elapsed);
+                all.record(elapsed);
+                int status = error != null ? -1 : response.statusCode();
+                statuses.computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+                if (status < 200 || status >= 300) {
+                    errors.incrementAndGet();
+                }
+            }
+            if (error == null && operation.equals("add") && response.statusCode() == 201) {
+                Matcher matcher = ID.matcher(response.body());
+                if (matcher.find()) {
+                    added.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+            next(token, added, finished);
+        });
+    }
+
+    private void report(int seconds) {
+        System.out.printf("%-8s %10s %10s %9s %9s %9s %9s%n", "op", "requests", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (Map.Entry<String, Metrics.Timer> entry : timers.entrySet()) {
+            print(entry.getKey(), entry.getValue(), seconds);
+        }
+        print("all", all, seconds);
+        System.out.println("errors: " + errors.get() + ", statuses: " + statuses);
+    }
+
+    private static void print(String name, Metrics.Timer timer, int seconds) {
+        System.out.printf("%-8s %10d %10.0f %9.2f %9.2f %9.2f %9.2f%n", name, timer.getCount(),
+            timer.getCount() / (double) seconds, timer.getP50Millis(), timer.getP90Millis(),
+            timer.getP99Millis(), timer.getMaxMillis());
+    }
+}
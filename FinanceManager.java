@@ -1,74 +1,793 @@
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
+// Shared by every dashboard session. Mutations are serialized on the
+// manager's lock; reads take no lock at all. Each user's ledger is an
+// immutable snapshot that writers replace, so a reader works on one
+// consistent version of a user's records while writers move on.
+//
+// Every stored record gets the next id from a 64-bit counter; deletes go
+// through an id -> slot index and leave a tombstone in the store. Once
+// enough tombstones pile up the store is compacted on a background thread.
+//
+// With a sharded data directory only the users whose shard has been read
+// are in memory; every per-user entry point reads the shard first.
 public class FinanceManager {
-    private List<FinancialRecord> records;
+    private volatile RecordStore records;
+    // Per-user view of the same records, kept in step with every mutation
+    private Map<String, UserLedger> ledgers;
+    // Users of an indexed mapped snapshot whose ledger isn't built yet
+    private Set<String> unreadUsers;
+    private RollupIndex rollups;
+    // Replaced, together with the store, when tombstones are compacted
+    private volatile RecordIdIndex ids;
+    private SearchIndex searchIndex;
+    private TimeIndex timeIndex;
+    private long nextId = 1;
+    // Ids below this are reserved in the log and safe to hand out
+    private long idCeiling;
+    // Tombstones the store keeps even after compacting (mapped rows)
+    private int residualTombstones;
+    private boolean tombstoneCompactionQueued;
+    private final ExecutorService compactor;
+    private final RecordLog journal;
+    private final RecordJournal.Replay replay = new Replay();
     private static final String FINANCE_DATA_FILE = "financial_records.dat";
+    private static final String MAPPED_DATA_FILE = "financial_records.bin";
+    private static final String SHARDED_DATA_DIR = "financial_records.shards";
+    // -Dfinance.store=columnar switches to the struct-of-arrays engine,
+    // -Dfinance.store=offheap to rows in direct memory, and
+    // -Dfinance.store=mapped to the memory-mapped binary file
+    private static final String STORE_PROPERTY = "finance.store";
+    // -Dfinance.layout=sharded keeps records in per-user shard files
+    private static final String LAYOUT_PROPERTY = "finance.layout";
+    // -Dfinance.snapshot=compressed writes snapshots in the columnar,
+    // compressed format; both formats are always read
+    private static final String SNAPSHOT_PROPERTY = "finance.snapshot";
+    // Compact once this many tombstones, and at least a quarter of the
+    // store's slots, have accumulated
+    private static final int TOMBSTONE_THRESHOLD = 4096;
+
+    private static final Metrics.Timer ADD_TIMER = Metrics.timer("records.add");
+    private static final Metrics.Timer DELETE_TIMER = Metrics.timer("records.delete");
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer("records.load");
+    private static final Metrics.Timer SEARCH_TIMER = Metrics.timer("records.search");
+    private static final Metrics.Timer RANGE_TIMER = Metrics.timer("records.range");
+
+    // Loaded once per JVM, off the EDT; started before the login window so
+    // that reading the records overlaps with the user typing
+    private static CompletableFuture<FinanceManager> shared;
+    // Managers still reachable; records.count sums their loaded records
+    private static final Set<FinanceManager> LIVE =
+        Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+        Metrics.gauge("records.count", () -> {
+            long total = 0;
+            synchronized (LIVE) {
+                for (FinanceManager manager : LIVE) {
+                    total += manager.records.size();
+                }
+            }
+            return total;
+        });
+    }
 
     public FinanceManager() {
+        this(defaultDataFile());
+    }
+
+    public static synchronized CompletableFuture<FinanceManager> loadShared() {
+        if (shared == null) {
+            shared = new CompletableFuture<>();
+            Thread loader = new Thread(() -> {
+                try {
+                    shared.complete(new FinanceManager());
+                } catch (RuntimeException e) {
+                    System.err.println("Error loading records: " + e.getMessage());
+                    shared.completeExceptionally(e);
+                }
+            }, "finance-loader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+        return shared;
+    }
+
+    // Data files ending in .bin use the mapped format, directories are
+    // sharded, anything else is the serialized list
+    public FinanceManager(String dataFile) {
+        this.journal = Files.isDirectory(Paths.get(dataFile))
+            ? new ShardedRecordLog(dataFile)
+            : RecordJournal.forFile(dataFile, formatFor(dataFile));
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "record-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
         loadRecords();
+        LOAD_TIMER.recordSince(start);
+        LIVE.add(this);
     }
 
-    public void addRecord(FinancialRecord record) {
-        records.add(record);
-        saveRecords();
+    // The record is visible to readers as soon as this returns and carries
+    // its id; the future completes once it is durable in the journal
+    public synchronized CompletableFuture<Void> addRecord(FinancialRecord record) {
+        ensureLoaded(record.getUsername());
+        if (ids.slotOf(record.getId()) >= 0) {
+            throw new IllegalArgumentException("Record " + record.getId() + " is already stored");
+        }
+        long start = System.nanoTime();
+        FinanceEvents.RecordMutation event = new FinanceEvents.RecordMutation();
+        event.begin();
+        long givenId = record.getId();
+        assignId(record);
+        CompletableFuture<Void> persisted;
+        try {
+            persisted = journal.logAdd(record);
+        } catch (RuntimeException e) {
+            record.setId(givenId);
+            throw e;
+        }
+        index(record);
+        compactIfNeeded();
+        ADD_TIMER.recordSince(start);
+        commit(event, "add", record, 1);
+        return persisted;
     }
 
-    public void deleteRecord(FinancialRecord record) {
-        records.remove(record);
-        saveRecords();
+    // Adds the whole batch under one lock and journals it as one flush;
+    // either every record is added or, if one is already stored, none is
+    public synchronized CompletableFuture<Void> addRecords(List<FinancialRecord> batch) {
+        for (FinancialRecord record : batch) {
+            ensureLoaded(record.getUsername());
+        }
+        for (FinancialRecord record : batch) {
+            if (ids.slotOf(record.getId()) >= 0) {
+                throw new IllegalArgumentException("Record " + record.getId() + " is already stored");
+            }
+        }
+        FinanceEvents.RecordMutation event = new FinanceEvents.RecordMutation();
+        event.begin();
+        long[] givenIds = new long[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            givenIds[i] = batch.get(i).getId();
+            assignId(batch.get(i));
+        }
+        CompletableFuture<Void> persisted;
+        try {
+            persisted = journal.logAddAll(batch);
+        } catch (RuntimeException e) {
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).setId(givenIds[i]);
+            }
+            throw e;
+        }
+        for (FinancialRecord record : batch) {
+            index(record);
+        }
+        compactIfNeeded();
+        if (!batch.isEmpty()) {
+            commit(event, "addBatch", batch.get(0), batch.size());
+        }
+        return persisted;
     }
 
+    // Only finds records of users whose shard has been read
+    public synchronized CompletableFuture<Void> deleteRecord(long id) {
+        int slot = ids.slotOf(id);
+        if (slot < 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return delete(slot, records.get(slot));
+    }
+
+    // Records without an id (never stored here) are matched field by field
+    public synchronized CompletableFuture<Void> deleteRecord(FinancialRecord record) {
+        ensureLoaded(record.getUsername());
+        if (record.getId() != 0) {
+            return deleteRecord(record.getId());
+        }
+        UserLedger ledger = ledgers.get(record.getUsername());
+        int slot = ledger == null ? -1 : ledger.find(record);
+        if (slot < 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return delete(slot, records.get(slot));
+    }
+
+    private CompletableFuture<Void> delete(int slot, FinancialRecord record) {
+        long start = System.nanoTime();
+        FinanceEvents.RecordMutation event = new FinanceEvents.RecordMutation();
+        event.begin();
+        CompletableFuture<Void> persisted = journal.logDelete(record);
+        unindex(slot, record);
+        compactIfNeeded();
+        compactTombstonesIfNeeded();
+        DELETE_TIMER.recordSince(start);
+        commit(event, "delete", record, 1);
+        return persisted;
+    }
+
+    private void commit(FinanceEvents.RecordMutation event, String operation, FinancialRecord record, int batchSize) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.username = record.getUsername();
+            event.recordId = record.getId();
+            event.batchSize = batchSize;
+            event.storedRecords = records.size();
+            event.commit();
+        }
+    }
+
+    // Null if no record has the id; only finds records of users whose shard
+    // has been read
+    public FinancialRecord getRecord(long id) {
+        return ids.get(id);
+    }
+
+    // Null unless the user has a record with the id
+    public FinancialRecord getRecord(String username, long id) {
+        ensureLoaded(username);
+        FinancialRecord record = ids.get(id);
+        return record != null && record.getUsername().equals(username) ? record : null;
+    }
+
+    // Reads every shard first
     public List<FinancialRecord> getAllRecords() {
-        return new ArrayList<>(records);
+        if (journal instanceof ShardedRecordLog) {
+            loadAllShards();
+        }
+        return records.toList();
+    }
+
+    private synchronized void loadAllShards() {
+        journal.loadAll();
+    }
+
+    // Rewrites a sharded data directory into `buckets` shards while the
+    // manager stays in use; completes once the new shards are in effect
+    public synchronized CompletableFuture<Void> rebalance(int buckets) {
+        journal.loadAll();
+        return journal.rebalance(buckets, this::liveRecords);
     }
 
     public List<FinancialRecord> getUserRecords(String username) {
-        return records.stream()
-            .filter(r -> r.getUsername().equals(username))
-            .collect(Collectors.toList());
+        ensureLoaded(username);
+        UserLedger ledger = ledgers.get(username);
+        if (ledger == null) {
+            return Collections.emptyList();
+        }
+        List<FinancialRecord> userRecords = new ArrayList<>(ledger.count);
+        for (int i = 0; i < ledger.count; i++) {
+            FinancialRecord record = ledger.store.get(ledger.slots[i]);
+            // Deleted by another session after this ledger was read
+            if (record != null) {
+                userRecords.add(record);
+            }
+        }
+        return userRecords;
+    }
+
+    // Hands one user's records with dates in [from, to) to the action in
+    // insertion order, one at a time and without copying the list; null
+    // bounds are open. Works on the ledger as of the call.
+    public void forEachUserRecord(String username, LocalDate from, LocalDate to,
+                                  Consumer<FinancialRecord> action) {
+        ensureLoaded(username);
+        UserLedger ledger = ledgers.get(username);
+        if (ledger == null) {
+            return;
+        }
+        for (int i = 0; i < ledger.count; i++) {
+            FinancialRecord record = ledger.store.get(ledger.slots[i]);
+            if (record == null) {
+                continue;
+            }
+            LocalDate date = record.getDateTime().toLocalDate();
+            if ((from == null || !date.isBefore(from)) && (to == null || date.isBefore(to))) {
+                action.accept(record);
+            }
+        }
+    }
+
+    // Records of the user whose description or category has every word of
+    // the query as a word prefix, newest first, at most limit of them. The
+    // user's search index is built on first use.
+    public List<FinancialRecord> search(String username, String query, int limit) {
+        prepareSearch(username);
+        long start = System.nanoTime();
+        RecordIdIndex index = ids;
+        List<FinancialRecord> matches = searchIndex.search(username, query, limit, index::get);
+        SEARCH_TIMER.recordSince(start);
+        return matches;
+    }
+
+    // Builds the user's search index ahead of the first query
+    public void prepareSearch(String username) {
+        ensureLoaded(username);
+        if (!searchIndex.isIndexed(username)) {
+            buildSearchIndex(username);
+        }
+    }
+
+    private synchronized void buildSearchIndex(String username) {
+        if (!searchIndex.isIndexed(username)) {
+            searchIndex.build(username, getUserRecords(username));
+        }
+    }
+
+    // One user's records dated in [from, to), oldest first, read lazily from
+    // the time index: O(log n) to find the start, then one step per record.
+    // Null bounds are open. The user's index is built on first use.
+    public Iterator<FinancialRecord> getUserRecords(String username, LocalDateTime from, LocalDateTime to) {
+        ensureLoaded(username);
+        if (!timeIndex.isIndexed(username)) {
+            buildTimeIndex(username);
+        }
+        long start = System.nanoTime();
+        RecordIdIndex index = ids;
+        Iterator<FinancialRecord> range = timeIndex.range(username, from, to, index::get);
+        // Only the lookup; the caller's walk over the range is its own time
+        RANGE_TIMER.recordSince(start);
+        return range;
+    }
+
+    private synchronized void buildTimeIndex(String username) {
+        if (!timeIndex.isIndexed(username)) {
+            timeIndex.build(username, getUserRecords(username));
+        }
+    }
+
+    // Positional access into one user's records (insertion order) without
+    // copying them, for views that only look at a few rows at a time.
+    // getUserRecord returns null if the record was deleted concurrently,
+    // including when that left fewer records than the index. Views that
+    // need the count and the rows to agree hold a UserRecords instead.
+    public int getUserRecordCount(String username) {
+        ensureLoaded(username);
+        UserLedger ledger = ledgers.get(username);
+        return ledger == null ? 0 : ledger.count;
+    }
+
+    public FinancialRecord getUserRecord(String username, int index) {
+        ensureLoaded(username);
+        UserLedger ledger = ledgers.get(username);
+        return ledger == null ? null : new UserRecords(ledger).get(index);
+    }
+
+    // One user's records as of the call, without copying them
+    public UserRecords getUserRecordsSnapshot(String username) {
+        ensureLoaded(username);
+        return new UserRecords(ledgers.getOrDefault(username, UserLedger.EMPTY));
+    }
+
+    // Fixed row count over one ledger version; a row whose record was
+    // deleted since reads as null
+    public static final class UserRecords {
+        public static final UserRecords EMPTY = new UserRecords(UserLedger.EMPTY);
+
+        private final UserLedger ledger;
+
+        private UserRecords(UserLedger ledger) {
+            this.ledger = ledger;
+        }
+
+        public int size() {
+            return ledger.count;
+        }
+
+        public FinancialRecord get(int index) {
+            if (index < 0 || index >= ledger.count) {
+                return null;
+            }
+            return ledger.store.get(ledger.slots[index]);
+        }
     }
 
     public double getTotalIncome(String username) {
-        return records.stream()
-            .filter(r -> r.getUsername().equals(username))
-            .filter(r -> r.getType().equals("INCOME"))
-            .mapToDouble(FinancialRecord::getAmount)
-            .sum();
+        UserLedger ledger = summarized(username);
+        return ledger == null ? 0 : ledger.income;
     }
 
     public double getTotalExpense(String username) {
-        return records.stream()
-            .filter(r -> r.getUsername().equals(username))
-            .filter(r -> r.getType().equals("EXPENSE"))
-            .mapToDouble(FinancialRecord::getAmount)
-            .sum();
+        UserLedger ledger = summarized(username);
+        return ledger == null ? 0 : ledger.expense;
+    }
+
+    // Sum of one type ("INCOME"/"EXPENSE") with dates in [from, to), answered
+    // from the rollups; a null category means all categories, null bounds are open
+    public double getTotal(String username, String type, String category, LocalDate from, LocalDate to) {
+        summarized(username);
+        return rollups.total(username, type, category, from, to);
+    }
+
+    public SortedMap<LocalDate, Double> getTotalsOverTime(String username, String type, String category,
+                                                          RollupIndex.Granularity granularity,
+                                                          LocalDate from, LocalDate to) {
+        summarized(username);
+        return rollups.series(username, type, category, granularity, from, to);
+    }
+
+    public Map<String, Double> getTotalsByCategory(String username, String type, LocalDate from, LocalDate to) {
+        summarized(username);
+        return rollups.totalsByCategory(username, type, from, to);
     }
 
-    private void saveRecords() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(
-                new FileOutputStream(FINANCE_DATA_FILE))) {
-            oos.writeObject(records);
-        } catch (IOException e) {
-            System.err.println("Error saving records: " + e.getMessage());
+    // Average expense per day over the last `days` days, today included
+    public double getDailyBurnRate(String username, int days) {
+        if (days <= 0) {
+            throw new IllegalArgumentException("Days must be positive: " + days);
         }
+        summarized(username);
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        return rollups.total(username, "EXPENSE", null, tomorrow.minusDays(days), tomorrow) / days;
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadRecords() {
-        if (!new File(FINANCE_DATA_FILE).exists()) {
-            records = new ArrayList<>();
+    // The copy is the only O(n) step and happens once per COMPACT_THRESHOLD
+    // mutations; the snapshot itself is written off the caller's thread
+    private void compactIfNeeded() {
+        journal.compactIfNeeded(this::liveRecords);
+    }
+
+    // Copy of the records of the users the filter accepts, or of all of them
+    private List<FinancialRecord> liveRecords(Predicate<String> users) {
+        if (users == null) {
+            return records.toList();
+        }
+        List<FinancialRecord> live = new ArrayList<>();
+        for (String username : ledgers.keySet()) {
+            if (users.test(username)) {
+                live.addAll(getUserRecords(username));
+            }
+        }
+        return live;
+    }
+
+    // A plain read once the user's shard and ledger are in memory
+    private void ensureLoaded(String username) {
+        if (!journal.isLoaded(username)) {
+            loadShard(username);
+        }
+        ensureLedger(username);
+    }
+
+    private void ensureLedger(String username) {
+        if (unreadUsers.contains(username)) {
+            readLedger(username);
+        }
+    }
+
+    private synchronized void loadShard(String username) {
+        journal.load(username);
+    }
+
+    // Builds the ledger from the snapshot's user index; published before
+    // the user is crossed off, so a reader never sees neither
+    private synchronized void readLedger(String username) {
+        if (!unreadUsers.contains(username)) {
             return;
         }
-        
-        try (ObjectInputStream ois = new ObjectInputStream(
-                new FileInputStream(FINANCE_DATA_FILE))) {
-            records = (List<FinancialRecord>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error loading records: " + e.getMessage());
-            records = new ArrayList<>();
+        MappedRecordStore store = (MappedRecordStore) records;
+        int[] slots = store.mappedSlotsOf(username);
+        ledgers.put(username, new UserLedger(store, slots, slots.length, false, 0, 0));
+        unreadUsers.remove(username);
+    }
+
+    // Totals and rollups of a user are only built the first time something
+    // asks for them, from that user's slots alone. That first call takes the
+    // write lock; every later one is a plain read.
+    private UserLedger summarized(String username) {
+        ensureLoaded(username);
+        UserLedger ledger = ledgers.get(username);
+        if (ledger == null || ledger.summarized) {
+            return ledger;
+        }
+        return summarize(username);
+    }
+
+    private synchronized UserLedger summarize(String username) {
+        UserLedger ledger = ledgers.get(username);
+        if (!ledger.summarized) {
+            double income = 0;
+            double expense = 0;
+            for (int i = 0; i < ledger.count; i++) {
+                FinancialRecord record = ledger.store.get(ledger.slots[i]);
+                income += UserLedger.income(record);
+                expense += UserLedger.expense(record);
+                rollups.add(record);
+            }
+            ledger = ledger.summarized(income, expense);
+            ledgers.put(username, ledger);
+        }
+        return ledger;
+    }
+
+    private void compactTombstonesIfNeeded() {
+        int tombstones = records.slotCount() - records.size() - residualTombstones;
+        if (!tombstoneCompactionQueued
+                && tombstones >= Math.max(TOMBSTONE_THRESHOLD, records.slotCount() / 4)) {
+            tombstoneCompactionQueued = true;
+            compactor.execute(this::compactTombstones);
+        }
+    }
+
+    // Runs on the compactor thread. Writers wait for it; readers keep using
+    // the ledgers they hold, which point at the old store.
+    private synchronized void compactTombstones() {
+        tombstoneCompactionQueued = false;
+        int[] remap = new int[records.slotCount()];
+        RecordStore compacted = records.compact(remap);
+        for (Map.Entry<String, UserLedger> entry : ledgers.entrySet()) {
+            entry.setValue(entry.getValue().remapped(compacted, remap));
+        }
+        ids = ids.remapped(compacted, remap);
+        records = compacted;
+        residualTombstones = compacted.slotCount() - compacted.size();
+    }
+
+    // Callers hold the write lock, except during load
+    private void index(FinancialRecord record) {
+        ensureLedger(record.getUsername());
+        assignId(record);
+        int slot = records.add(record);
+        ids.put(record.getId(), slot);
+        UserLedger ledger = ledgers.getOrDefault(record.getUsername(), UserLedger.EMPTY).withSlot(records, slot);
+        if (ledger.summarized) {
+            ledger = ledger.plus(record, 1);
+            rollups.add(record);
+        }
+        ledgers.put(record.getUsername(), ledger);
+        searchIndex.add(record);
+        timeIndex.add(record);
+    }
+
+    // Gives a new record the next id; ids of stored records move nextId past them
+    private void assignId(FinancialRecord record) {
+        if (record.getId() == 0) {
+            if (nextId >= idCeiling) {
+                idCeiling = journal.reserveIds(nextId);
+            }
+            record.setId(nextId++);
+        } else {
+            nextId = Math.max(nextId, record.getId() + 1);
+        }
+    }
+
+    private void unindex(int slot, FinancialRecord record) {
+        ensureLedger(record.getUsername());
+        UserLedger ledger = ledgers.get(record.getUsername()).withoutSlot(slot);
+        if (ledger.summarized) {
+            ledger = ledger.plus(record, -1);
+            rollups.remove(record);
+        }
+        ledgers.put(record.getUsername(), ledger);
+        searchIndex.remove(record);
+        timeIndex.remove(record);
+        ids.remove(record.getId());
+        records.remove(slot);
+    }
+
+    static RecordStore createStore() {
+        String store = System.getProperty(STORE_PROPERTY);
+        if ("columnar".equalsIgnoreCase(store)) {
+            return new ColumnarRecordStore();
+        }
+        if ("offheap".equalsIgnoreCase(store)) {
+            return new OffHeapRecordStore();
+        }
+        return new ListRecordStore();
+    }
+
+    static SnapshotFormat formatFor(String dataFile) {
+        if (dataFile.endsWith(".bin")) {
+            return MappedRecordFile.FORMAT;
+        }
+        return streamFormat(FinanceManager::createStore);
+    }
+
+    static SnapshotFormat streamFormat(Supplier<RecordStore> storeFactory) {
+        if ("compressed".equalsIgnoreCase(System.getProperty(SNAPSHOT_PROPERTY))) {
+            return new CompressedSnapshotFormat(storeFactory);
+        }
+        return new SerializedSnapshotFormat(storeFactory);
+    }
+
+    private static String defaultDataFile() {
+        if ("sharded".equalsIgnoreCase(System.getProperty(LAYOUT_PROPERTY))) {
+            return shardedDataDir();
+        }
+        if (!"mapped".equalsIgnoreCase(System.getProperty(STORE_PROPERTY))) {
+            return FINANCE_DATA_FILE;
+        }
+        if (!new File(MAPPED_DATA_FILE).exists() && new File(FINANCE_DATA_FILE).exists()) {
+            try {
+                MappedRecordFile.migrate(FINANCE_DATA_FILE, MAPPED_DATA_FILE);
+            } catch (IOException e) {
+                System.err.println("Error migrating records: " + e.getMessage());
+                return FINANCE_DATA_FILE;
+            }
+        }
+        return MAPPED_DATA_FILE;
+    }
+
+    // A directory without a layout file is a migration that didn't finish
+    private static String shardedDataDir() {
+        if (!new File(SHARDED_DATA_DIR, "layout.properties").exists() && new File(FINANCE_DATA_FILE).exists()) {
+            try {
+                ShardedRecordLog.migrate(FINANCE_DATA_FILE, SHARDED_DATA_DIR, ShardedRecordLog.DEFAULT_BUCKETS);
+            } catch (IOException e) {
+                System.err.println("Error migrating records: " + e.getMessage());
+                return FINANCE_DATA_FILE;
+            }
+        }
+        new File(SHARDED_DATA_DIR).mkdirs();
+        return SHARDED_DATA_DIR;
+    }
+
+    private void loadRecords() {
+        ledgers = new ConcurrentHashMap<>();
+        unreadUsers = ConcurrentHashMap.newKeySet();
+        rollups = new RollupIndex();
+        searchIndex = new SearchIndex();
+        timeIndex = new TimeIndex();
+        journal.recover(replay);
+        nextId = Math.max(nextId, journal.idFloor());
+    }
+
+    // Feeds recovered records into the indexes; sharded logs keep using it
+    // as shards are read
+    private class Replay implements RecordJournal.Replay {
+        @Override
+        public void loaded(RecordStore store) {
+            records = store;
+            ids = new RecordIdIndex(store);
+            residualTombstones = store.slotCount() - store.size();
+            // Ledgers and ids are read from the snapshot's indexes on demand
+            if (store instanceof MappedRecordStore && ((MappedRecordStore) store).isIndexed()) {
+                MappedRecordStore mapped = (MappedRecordStore) store;
+                unreadUsers.addAll(mapped.mappedUsernames());
+                nextId = Math.max(nextId, mapped.maxMappedId() + 1);
+                return;
+            }
+            // Only the owner of each slot is needed up front
+            for (int slot = 0; slot < store.slotCount(); slot++) {
+                String username = store.usernameAt(slot);
+                if (username != null) {
+                    ledgers.put(username, ledgers.getOrDefault(username, UserLedger.EMPTY).withSlot(store, slot));
+                    long id = store.idAt(slot);
+                    ids.put(id, slot);
+                    nextId = Math.max(nextId, id + 1);
+                }
+            }
+        }
+
+        @Override
+        public void add(FinancialRecord record) {
+            index(record);
+        }
+
+        @Override
+        public void delete(FinancialRecord record) {
+            int slot;
+            if (record.getId() != 0) {
+                slot = ids.slotOf(record.getId());
+            } else {
+                ensureLedger(record.getUsername());
+                UserLedger ledger = ledgers.get(record.getUsername());
+                slot = ledger == null ? -1 : ledger.find(record);
+            }
+            if (slot >= 0) {
+                unindex(slot, records.get(slot));
+            }
+        }
+    }
+
+    // Immutable snapshot of one user's slots in insertion order, the store
+    // they point into, and their running totals, which are valid once
+    // summarized is set. Appends share the slot array with the previous
+    // version, which only reads below its own count; removals copy it.
+    private static class UserLedger {
+        static final UserLedger EMPTY = new UserLedger(null, new int[8], 0, false, 0, 0);
+
+        private final RecordStore store;
+        private final int[] slots;
+        private final int count;
+        private final boolean summarized;
+        private final double income;
+        private final double expense;
+
+        private UserLedger(RecordStore store, int[] slots, int count, boolean summarized,
+                           double income, double expense) {
+            this.store = store;
+            this.slots = slots;
+            this.count = count;
+            this.summarized = summarized;
+            this.income = income;
+            this.expense = expense;
+        }
+
+        UserLedger withSlot(RecordStore store, int slot) {
+            int[] next = slots;
+            if (count == slots.length || this == EMPTY) {
+                next = Arrays.copyOf(slots, Math.max(8, count * 2));
+            }
+            next[count] = slot;
+            return new UserLedger(store, next, count + 1, summarized, income, expense);
+        }
+
+        // Slots are handed out in increasing order and compaction keeps that
+        // order, so the slot is found by binary search
+        UserLedger withoutSlot(int slot) {
+            int i = Arrays.binarySearch(slots, 0, count, slot);
+            if (i < 0) {
+                return this;
+            }
+            int[] next = new int[slots.length];
+            System.arraycopy(slots, 0, next, 0, i);
+            System.arraycopy(slots, i + 1, next, i, count - i - 1);
+            return new UserLedger(store, next, count - 1, summarized, income, expense);
+        }
+
+        UserLedger remapped(RecordStore compacted, int[] remap) {
+            int[] next = new int[slots.length];
+            for (int i = 0; i < count; i++) {
+                next[i] = remap[slots[i]];
+            }
+            return new UserLedger(compacted, next, count, summarized, income, expense);
+        }
+
+        UserLedger plus(FinancialRecord record, int sign) {
+            return new UserLedger(store, slots, count, summarized,
+                income + sign * income(record), expense + sign * expense(record));
+        }
+
+        UserLedger summarized(double income, double expense) {
+            return new UserLedger(store, slots, count, true, income, expense);
+        }
+
+        static double income(FinancialRecord record) {
+            return record.getType().equals("INCOME") ? record.getAmount() : 0;
+        }
+
+        static double expense(FinancialRecord record) {
+            return record.getType().equals("EXPENSE") ? record.getAmount() : 0;
+        }
+
+        // Prefers the exact instance, falls back to a field match for views
+        int find(FinancialRecord record) {
+            int match = -1;
+            for (int i = 0; i < count; i++) {
+                FinancialRecord candidate = store.get(slots[i]);
+                if (candidate == record) {
+                    return slots[i];
+                }
+                if (match < 0 && record.sameAs(candidate)) {
+                    match = slots[i];
+                }
+            }
+            return match;
         }
     }
 }
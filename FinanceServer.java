@@ -0,0 +1,576 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Headless mode: one JVM owns users.dat and the record files and serves
+// them to any number of clients as JSON over HTTP, through the same
+// UserManager and FinanceManager the Swing frames use.
+//
+//   java Main --server [--port 8080] [--bind 127.0.0.1]
+//
+//   POST   /api/login          {"username": ..., "password": ...} -> {"token": ...}
+//   POST   /api/logout
+//   GET    /api/records        ?from=&to= (dates, [from, to)), ?q= (search), ?limit=
+//   POST   /api/records        {"amount", "type", "category", "description", "dateTime"?}
+//   GET    /api/records/{id}
+//   DELETE /api/records/{id}
+//   GET    /api/totals         ?from=&to=
+//
+// Everything but login takes "Authorization: Bearer <token>" and acts on
+// that user's records only. Each request runs on its own virtual thread
+// where the JDK has them, so a request waiting on the journal's fsync or a
+// password hash holds no platform thread; writes reply once durable.
+public class FinanceServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final int BACKLOG = 4096;
+    private static final int FALLBACK_THREADS = 256;
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int MAX_LIMIT = 10_000;
+    private static final int MAX_SESSIONS = 100_000;
+    private static final long SESSION_IDLE_NANOS = TimeUnit.MINUTES.toNanos(30);
+    private static final Metrics.Timer REQUEST_TIMER = Metrics.timer("http.requests");
+    private static final Metrics.Counter ERRORS = Metrics.counter("http.errors");
+
+    private final UserManager userManager;
+    private final FinanceManager financeManager;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    private static final class Session {
+        final String username;
+        volatile long lastUsed;
+
+        Session(String username) {
+            this.username = username;
+            this.lastUsed = System.nanoTime();
+        }
+    }
+
+    // Turned into an error reply with the status and message
+    private static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    public FinanceServer(UserManager userManager, FinanceManager financeManager, InetSocketAddress address)
+            throws IOException {
+        this.userManager = userManager;
+        this.financeManager = financeManager;
+        this.server = HttpServer.create(address, BACKLOG);
+        this.executor = VirtualThreads.newPerTaskExecutor("http", FALLBACK_THREADS);
+        server.setExecutor(executor);
+        server.createContext("/api/", this::handle);
+        Metrics.gauge("http.sessions", sessions::size);
+    }
+
+    public static void serve(String[] args) {
+        int port = DEFAULT_PORT;
+        String bind = "127.0.0.1";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--server": break;
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--bind": bind = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        try {
+            FinanceManager financeManager = FinanceManager.loadShared().join();
+            FinanceServer server = new FinanceServer(new UserManager(), financeManager,
+                new InetSocketAddress(bind, port));
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1), "http-shutdown"));
+            System.out.println("Finance server listening on http://" + bind + ":" + server.getPort()
+                + (VirtualThreads.isAvailable() ? " (virtual threads)" : " (" + FALLBACK_THREADS + " threads)"));
+        } catch (IOException | CompletionException e) {
+            System.err.println("Error starting server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Waits up to delaySeconds for requests in flight
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) {
+        long start = System.nanoTime();
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        int status = 200;
+        String body;
+        try {
+            body = route(exchange, method, path);
+            if (method.equals("POST") && path.equals("/api/records")) {
+                status = 201;
+            }
+        } catch (HttpError e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Error handling " + method + " " + path + ": " + e.getMessage());
+            status = 500;
+            body = error("Internal error");
+        }
+        if (status >= 400) {
+            ERRORS.increment();
+        }
+        try {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            // The client went away
+        } finally {
+            exchange.close();
+            REQUEST_TIMER.recordSince(start);
+        }
+    }
+
+    private String route(HttpExchange exchange, String method, String path) {
+        if (path.equals("/api/login")) {
+            requireMethod(method, "POST");
+            return login(readJson(exchange));
+        }
+        String username = authenticated(exchange);
+        Map<String, String> query = queryParameters(exchange);
+        if (path.equals("/api/logout")) {
+            requireMethod(method, "POST");
+            sessions.remove(token(exchange));
+            return "{}";
+        }
+        if (path.equals("/api/records")) {
+            if (method.equals("GET")) {
+                return listRecords(username, query);
+            }
+            requireMethod(method, "POST");
+            return addRecord(username, readJson(exchange));
+        }
+        if (path.startsWith("/api/records/")) {
+            long id;
+            try {
+                id = Long.parseLong(path.substring("/api/records/".length()));
+            } catch (NumberFormatException e) {
+                throw new HttpError(404, "No such record");
+            }
+            FinancialRecord record = financeManager.getRecord(username, id);
+            if (record == null) {
+                throw new HttpError(404, "No such record");
+            }
+            if (method.equals("GET")) {
+                return toJson(record);
+            }
+            requireMethod(method, "DELETE");
+            financeManager.deleteRecord(id).join();
+            return "{\"id\":" + id + "}";
+        }
+        if (path.equals("/api/totals")) {
+            requireMethod(method, "GET");
+            return totals(username, query);
+        }
+        throw new HttpError(404, "No such endpoint");
+    }
+
+    private String login(Map<String, Object> body) {
+        String username = string(body, "username", true);
+        String password = string(body, "password", true);
+        boolean authenticated;
+        try {
+            // Hashing runs on the authenticator's bounded pool, not here
+            authenticated = userManager.authenticateAsync(username, password).join();
+        } catch (CompletionException e) {
+            throw new HttpError(503, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        }
+        if (!authenticated) {
+            throw new HttpError(401, "Invalid username or password");
+        }
+        if (!(userManager.getUser(username) instanceof RegularUser)) {
+            throw new HttpError(403, "Only regular users have records");
+        }
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        if (sessions.size() >= MAX_SESSIONS) {
+            long now = System.nanoTime();
+            sessions.values().removeIf(session -> now - session.lastUsed > SESSION_IDLE_NANOS);
+        }
+        sessions.put(token, new Session(username));
+        return "{\"token\":" + quote(token) + ",\"username\":" + quote(username) + "}";
+    }
+
+    private String authenticated(HttpExchange exchange) {
+        String token = token(exchange);
+        Session session = token == null ? null : sessions.get(token);
+        long now = System.nanoTime();
+        if (session == null || now - session.lastUsed > SESSION_IDLE_NANOS
+                || userManager.getUser(session.username) == null) {
+            if (session != null) {
+                sessions.remove(token);
+            }
+            throw new HttpError(401, "Log in first");
+        }
+        session.lastUsed = now;
+        return session.username;
+    }
+
+    private static String token(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            return null;
+        }
+        return header.substring("Bearer ".length()).trim();
+    }
+
+    private String listRecords(String username, Map<String, String> query) {
+        int limit = DEFAULT_LIMIT;
+        if (query.containsKey("limit")) {
+            try {
+                limit = Math.max(0, Math.min(MAX_LIMIT, Integer.parseInt(query.get("limit"))));
+            } catch (NumberFormatException e) {
+                throw new HttpError(400, "Bad limit: " + query.get("limit"));
+            }
+        }
+        StringBuilder json = new StringBuilder("[");
+        String search = query.get("q");
+        if (search != null && !search.isBlank()) {
+            for (FinancialRecord record : financeManager.search(username, search, limit)) {
+                append(json, record);
+            }
+        } else {
+            LocalDate from = date(query, "from");
+            LocalDate to = date(query, "to");
+            Iterator<FinancialRecord> range = financeManager.getUserRecords(username,
+                from == null ? null : from.atStartOfDay(), to == null ? null : to.atStartOfDay());
+            for (int i = 0; i < limit && range.hasNext(); i++) {
+                append(json, range.next());
+            }
+        }
+        return json.append(']').toString();
+    }
+
+    private String addRecord(String username, Map<String, Object> body) {
+        Object amount = body.get("amount");
+        if (!(amount instanceof Double) || !((Double) amount > 0) || ((Double) amount).isInfinite()) {
+            throw new HttpError(400, "amount must be a positive number");
+        }
+        String type = string(body, "type", true);
+        if (!type.equals("INCOME") && !type.equals("EXPENSE")) {
+            throw new HttpError(400, "type must be INCOME or EXPENSE");
+        }
+        String category = string(body, "category", true);
+        String description = string(body, "description", false);
+        String dateTime = string(body, "dateTime", false);
+        FinancialRecord record;
+        try {
+            record = dateTime == null
+                ? new FinancialRecord((Double) amount, type, description == null ? "" : description, category, username)
+                : new FinancialRecord((Double) amount, type, description == null ? "" : description, category, username,
+                    LocalDateTime.parse(dateTime));
+        } catch (DateTimeParseException e) {
+            throw new HttpError(400, "Bad dateTime: " + dateTime);
+        }
+        financeManager.addRecord(record).join();
+        return toJson(record);
+    }
+
+    private String totals(String username, Map<String, String> query) {
+        LocalDate from = date(query, "from");
+        LocalDate to = date(query, "to");
+        double income;
+        double expense;
+        if (from == null && to == null) {
+            income = financeManager.getTotalIncome(username);
+            expense = financeManager.getTotalExpense(username);
+        } else {
+            income = financeManager.getTotal(username, "INCOME", null, from, to);
+            expense = financeManager.getTotal(username, "EXPENSE", null, from, to);
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\"income\":").append(income)
+            .append(",\"expense\":").append(expense)
+            .append(",\"balance\":").append(income - expense)
+            .append(",\"expenseByCategory\":{");
+        boolean first = true;
+        for (Map.Entry<String, Double> entry : financeManager.getTotalsByCategory(username, "EXPENSE", from, to).entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append(quote(entry.getKey())).append(':').append(entry.getValue());
+        }
+        return json.append("}}").toString();
+    }
+
+    private static void requireMethod(String method, String expected) {
+        if (!method.equals(expected)) {
+            throw new HttpError(405, "Method " + method + " not allowed");
+        }
+    }
+
+    private static LocalDate date(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new HttpError(400, "Bad " + name + " date: " + value);
+        }
+    }
+
+    private static String string(Map<String, Object> body, String name, boolean required) {
+        Object value = body.get(name);
+        if (value == null) {
+            if (required) {
+                throw new HttpError(400, name + " is required");
+            }
+            return null;
+        }
+        if (!(value instanceof String)) {
+            throw new HttpError(400, name + " must be a string");
+        }
+        return (String) value;
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static Map<String, Object> readJson(HttpExchange exchange) {
+        byte[] bytes;
+        try (InputStream in = exchange.getRequestBody()) {
+            bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+        } catch (IOException e) {
+            throw new HttpError(400, "Could not read request body");
+        }
+        if (bytes.length > MAX_BODY_BYTES) {
+            throw new HttpError(413, "Request body too large");
+        }
+        try {
+            return new JsonObjectParser(new String(bytes, StandardCharsets.UTF_8)).parse();
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, "Bad JSON: " + e.getMessage());
+        }
+    }
+
+    private static String toJson(FinancialRecord record) {
+        StringBuilder json = new StringBuilder();
+        append(json, record);
+        return json.toString();
+    }
+
+    private static void append(StringBuilder json, FinancialRecord record) {
+        if (json.length() > 1) {
+            json.append(',');
+        }
+        json.append("{\"id\":").append(record.getId())
+            .append(",\"dateTime\":").append(quote(record.getDateTime().toString()))
+            .append(",\"type\":").append(quote(record.getType()))
+            .append(",\"amount\":").append(record.getAmount())
+            .append(",\"category\":").append(quote(record.getCategory()))
+            .append(",\"description\":").append(quote(record.getDescription()))
+            .append('}');
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    // Request bodies are flat objects of strings, numbers, booleans and nulls;
+    // anything nested is rejected
+    static final class JsonObjectParser {
+        private final String text;
+        private int pos;
+
+        JsonObjectParser(String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> parse() {
+            Map<String, Object> object = new HashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+            } else {
+                do {
+                    String key = parseString();
+                    expect(':');
+                    object.put(key, parseValue());
+                } while (consume(','));
+                expect('}');
+            }
+            if (peek() != 0) {
+                throw new IllegalArgumentException("trailing characters at " + pos);
+            }
+            return object;
+        }
+
+        private Object parseValue() {
+            char c = peek();
+            if (c == '"') {
+                return parseString();
+            }
+            if (text.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            }
+            if (text.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            }
+            if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            if (start == pos) {
+                throw new IllegalArgumentException("unexpected '" + c + "' at " + pos);
+            }
+            try {
+                return Double.parseDouble(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad number at " + start);
+            }
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw new IllegalArgumentException("bad escape at " + pos);
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("bad escape at " + pos);
+                        }
+                        pos += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+            throw new IllegalArgumentException("unterminated string");
+        }
+
+        private boolean consume(char c) {
+            if (peek() == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw new IllegalArgumentException("expected '" + c + "' at " + pos);
+            }
+            pos++;
+        }
+
+        // Next non-space character, or 0 at the end
+        private char peek() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            return pos < text.length() ? text.charAt(pos) : 0;
+        }
+    }
+}
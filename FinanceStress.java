@@ -0,0 +1,234 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stress check for one FinanceManager shared by many sessions. Writer
+// threads add and delete records for their own user and for one user they
+// all share, while reader threads hammer the query methods. Afterwards every
+// user's record count and totals must match what the writers did, both in
+// memory and after reloading the data file. Amounts are whole numbers so
+// the totals compare exactly. With --shards the records go to a sharded
+// data directory with that many buckets.
+//
+// Usage: java FinanceStress [--writers 8] [--readers 4] [--ops 20000] [--shards 0]
+public class FinanceStress {
+    private static final String SHARED_USER = "shared";
+
+    public static void main(String[] args) throws Exception {
+        int writers = 8;
+        int readers = 4;
+        int ops = 20_000;
+        int shards = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--writers": writers = Integer.parseInt(args[i + 1]); break;
+                case "--readers": readers = Integer.parseInt(args[i + 1]); break;
+                case "--ops": ops = Integer.parseInt(args[i + 1]); break;
+                case "--shards": shards = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Path dir = Files.createTempDirectory("finance-stress");
+        String dataFile = dir.resolve("financial_records.dat").toString();
+        if (shards > 0) {
+            // Read when the first sharded log is opened
+            System.setProperty("finance.shards", Integer.toString(shards));
+            dataFile = Files.createDirectories(dir.resolve("financial_records.shards")).toString();
+        }
+        FinanceManager manager = new FinanceManager(dataFile);
+        ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        Expected[] expected = new Expected[writers];
+        List<CompletableFuture<Void>> persisted = new ArrayList<>();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writerThreads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            Expected mine = expected[w] = new Expected();
+            String username = "writer" + w;
+            int count = ops;
+            writerThreads.add(new Thread(() -> {
+                await(start);
+                try {
+                    mine.last = write(manager, username, count, mine);
+                } catch (RuntimeException e) {
+                    failures.add(username + ": " + e);
+                }
+            }, username));
+        }
+        List<Thread> readerThreads = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            int writerCount = writers;
+            readerThreads.add(new Thread(() -> {
+                await(start);
+                while (writing.get()) {
+                    try {
+                        read(manager, writerCount);
+                        reads.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        failures.add(Thread.currentThread().getName() + ": " + e);
+                    }
+                }
+            }, "reader" + r));
+        }
+
+        long began = System.nanoTime();
+        writerThreads.forEach(Thread::start);
+        readerThreads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : writerThreads) {
+            thread.join();
+        }
+        writing.set(false);
+        for (Thread thread : readerThreads) {
+            thread.join();
+        }
+        long elapsedMillis = (System.nanoTime() - began) / 1_000_000;
+        for (Expected mine : expected) {
+            if (mine.last != null) {
+                persisted.add(mine.last);
+            }
+        }
+        CompletableFuture.allOf(persisted.toArray(new CompletableFuture<?>[0])).get();
+
+        System.out.println(writers + " writers x " + ops + " ops, " + readers + " readers ("
+            + reads.get() + " read rounds) in " + elapsedMillis + " ms");
+        verify("in memory", manager, expected, failures);
+        verify("after reload", new FinanceManager(dataFile), expected, failures);
+
+        if (failures.isEmpty()) {
+            System.out.println("PASS");
+        } else {
+            failures.forEach(failure -> System.out.println("FAIL " + failure));
+            System.exit(1);
+        }
+    }
+
+    // Adds records for its own user and the shared one, deleting one of its
+    // own earlier records every fifth step
+    private static CompletableFuture<Void> write(FinanceManager manager, String username, int ops, Expected mine) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<FinancialRecord> own = new ArrayList<>();
+        LocalDateTime base = LocalDateTime.now().minusDays(365);
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < ops; i++) {
+            if (i % 5 == 4 && !own.isEmpty()) {
+                FinancialRecord victim = own.remove(random.nextInt(own.size()));
+                last = manager.deleteRecord(victim);
+                mine.own.remove(victim);
+                continue;
+            }
+            boolean shared = i % 3 == 0;
+            String type = random.nextBoolean() ? "INCOME" : "EXPENSE";
+            FinancialRecord record = new FinancialRecord(random.nextInt(1, 500), type, "Stress " + i,
+                "Other", shared ? SHARED_USER : username, base.plusMinutes(random.nextInt(365 * 24 * 60)));
+            last = manager.addRecord(record);
+            if (shared) {
+                mine.shared.add(record);
+            } else {
+                own.add(record);
+                mine.own.add(record);
+            }
+        }
+        return last;
+    }
+
+    private static void read(FinanceManager manager, int writers) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String username = random.nextInt(4) == 0 ? SHARED_USER : "writer" + random.nextInt(writers);
+        for (FinancialRecord record : manager.getUserRecords(username)) {
+            if (record == null || !record.getUsername().equals(username)) {
+                throw new IllegalStateException("getUserRecords(" + username + ") returned " + record);
+            }
+        }
+        manager.getTotalIncome(username);
+        manager.getTotalExpense(username);
+        LocalDate today = LocalDate.now();
+        manager.getTotal(username, "EXPENSE", null, today.minusYears(1), today.plusDays(1));
+        int count = manager.getUserRecordCount(username);
+        if (count > 0) {
+            manager.getUserRecord(username, random.nextInt(count));
+        }
+    }
+
+    private static void verify(String phase, FinanceManager manager, Expected[] expected, ConcurrentLinkedQueue<String> failures) {
+        Totals sharedTotals = new Totals();
+        for (int w = 0; w < expected.length; w++) {
+            Totals own = Totals.of(expected[w].own);
+            check(phase, manager, "writer" + w, own, failures);
+            sharedTotals.add(Totals.of(expected[w].shared));
+        }
+        check(phase, manager, SHARED_USER, sharedTotals, failures);
+    }
+
+    private static void check(String phase, FinanceManager manager, String username, Totals expected,
+                              ConcurrentLinkedQueue<String> failures) {
+        Totals actual = Totals.of(manager.getUserRecords(username));
+        LocalDate from = LocalDate.of(1970, 1, 1);
+        LocalDate to = LocalDate.now().plusYears(1);
+        if (actual.count != expected.count
+                || actual.income != expected.income || actual.expense != expected.expense
+                || manager.getTotalIncome(username) != expected.income
+                || manager.getTotalExpense(username) != expected.expense
+                || manager.getTotal(username, "EXPENSE", null, from, to) != expected.expense) {
+            failures.add(phase + " " + username + ": expected " + expected + ", records " + actual
+                + ", totals " + manager.getTotalIncome(username) + "/" + manager.getTotalExpense(username));
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Expected {
+        // Only touched by the owning writer until it has been joined
+        private final List<FinancialRecord> own = new ArrayList<>();
+        private final List<FinancialRecord> shared = new ArrayList<>();
+        private CompletableFuture<Void> last;
+    }
+
+    private static class Totals {
+        private long count;
+        private double income;
+        private double expense;
+
+        static Totals of(List<FinancialRecord> records) {
+            Totals totals = new Totals();
+            for (FinancialRecord record : records) {
+                totals.count++;
+                if (record.getType().equals("INCOME")) {
+                    totals.income += record.getAmount();
+                } else {
+                    totals.expense += record.getAmount();
+                }
+            }
+            return totals;
+        }
+
+        void add(Totals other) {
+            count += other.count;
+            income += other.income;
+            expense += other.expense;
+        }
+
+        @Override
+        public String toString() {
+            return count + " records, " + income + " income, " + expense + " expense";
+        }
+    }
+}
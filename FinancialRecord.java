@@ -1,5 +1,7 @@
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Objects;
 
 public class FinancialRecord implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -10,6 +12,9 @@ public class FinancialRecord implements Serializable {
     private String category;
     private LocalDateTime dateTime;
     private String username; // to track which user created this record
+    // Assigned by FinanceManager when the record is first stored; 0 until then
+    // and in files written before records had ids
+    private long id;
 
     public FinancialRecord(double amount, String type, String description, String category, String username) {
         this.amount = amount;
@@ -20,6 +25,15 @@ public class FinancialRecord implements Serializable {
         this.dateTime = LocalDateTime.now();
     }
 
+    public FinancialRecord(double amount, String type, String description, String category, String username, LocalDateTime dateTime) {
+        this.amount = amount;
+        this.type = type;
+        this.description = description;
+        this.category = category;
+        this.username = username;
+        this.dateTime = dateTime;
+    }
+
     // Getters
     public double getAmount() {
         return amount;
@@ -44,4 +58,25 @@ public class FinancialRecord implements Serializable {
     public String getUsername() {
         return username;
     }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    // Field-by-field match for records that may be different instances, e.g.
+    // views handed out by a columnar store. Timestamps compare to the
+    // millisecond, the finest precision every store keeps.
+    public boolean sameAs(FinancialRecord other) {
+        return other != null
+            && amount == other.amount
+            && Objects.equals(type, other.type)
+            && Objects.equals(description, other.description)
+            && Objects.equals(category, other.category)
+            && Objects.equals(username, other.username)
+            && dateTime.truncatedTo(ChronoUnit.MILLIS).equals(other.dateTime.truncatedTo(ChronoUnit.MILLIS));
+    }
 }
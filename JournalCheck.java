@@ -0,0 +1,100 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+// Regression check for the journal's record encoding. Records with null
+// fields and with a field longer than 64 KB must be journaled and read back
+// unchanged after a reload. A record too large for one journal frame must
+// be rejected before it is stored: the add throws, nothing is visible in
+// memory or after a reload, and a new record keeps its id of 0. With
+// --shards the records go to a sharded data directory with that many
+// buckets.
+//
+// Usage: java JournalCheck [--shards 0]
+public class JournalCheck {
+    private static final String USER = "journal";
+
+    public static void main(String[] args) throws Exception {
+        int shards = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--shards": shards = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Path dir = Files.createTempDirectory("finance-journal");
+        String dataFile = dir.resolve("financial_records.dat").toString();
+        if (shards > 0) {
+            System.setProperty("finance.shards", Integer.toString(shards));
+            dataFile = Files.createDirectories(dir.resolve("financial_records.shards")).toString();
+        }
+        FinanceManager manager = new FinanceManager(dataFile);
+        List<String> failures = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+
+        List<FinancialRecord> expected = new ArrayList<>();
+        expected.add(new FinancialRecord(10, "INCOME", null, null, USER, now));
+        // Three UTF-8 bytes per char: 96 KB, past writeUTF's limit
+        expected.add(new FinancialRecord(20, "EXPENSE", "€".repeat(32 * 1024), "Food", USER, now));
+        expected.add(new FinancialRecord(30, "EXPENSE", "", "", USER, now));
+        manager.addRecord(expected.get(0)).get();
+        manager.addRecords(expected.subList(1, expected.size())).get();
+
+        // Past the 1 MB frame limit
+        FinancialRecord tooLarge = new FinancialRecord(40, "EXPENSE", "x".repeat(2 << 20), "Food", USER, now);
+        expectRejected("addRecord", () -> manager.addRecord(tooLarge), failures);
+        FinancialRecord fits = new FinancialRecord(50, "INCOME", "fits", "Salary", USER, now);
+        expectRejected("addRecords", () -> manager.addRecords(List.of(fits, tooLarge)), failures);
+        if (tooLarge.getId() != 0 || fits.getId() != 0) {
+            failures.add("rejected records kept ids " + tooLarge.getId() + ", " + fits.getId());
+        }
+
+        check("in memory", manager, expected, failures);
+        check("after reload", new FinanceManager(dataFile), expected, failures);
+
+        // Deleting the record with null fields journals it the same way
+        manager.deleteRecord(expected.get(0).getId()).get();
+        expected.remove(0);
+        check("after delete and reload", new FinanceManager(dataFile), expected, failures);
+
+        if (failures.isEmpty()) {
+            System.out.println("PASS");
+        } else {
+            failures.forEach(failure -> System.out.println("FAIL " + failure));
+            System.exit(1);
+        }
+    }
+
+    private static void expectRejected(String operation, Runnable add, List<String> failures) {
+        try {
+            add.run();
+            failures.add(operation + " accepted a record too large to journal");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void check(String phase, FinanceManager manager, List<FinancialRecord> expected,
+                              List<String> failures) {
+        List<FinancialRecord> actual = manager.getUserRecords(USER);
+        if (actual.size() != expected.size()) {
+            failures.add(phase + ": expected " + expected.size() + " records, found " + actual.size());
+            return;
+        }
+        for (FinancialRecord want : expected) {
+            FinancialRecord got = manager.getRecord(USER, want.getId());
+            if (got == null
+                    || got.getAmount() != want.getAmount()
+                    || !Objects.equals(got.getType(), want.getType())
+                    || !Objects.equals(got.getDescription(), want.getDescription())
+                    || !Objects.equals(got.getCategory(), want.getCategory())
+                    || !Objects.equals(got.getDateTime(), want.getDateTime())) {
+                failures.add(phase + ": record " + want.getId() + " did not read back unchanged");
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Heap mode: one FinancialRecord object per slot, as FinanceManager has
+// always stored them.
+public class ListRecordStore implements RecordStore {
+    private volatile FinancialRecord[] slots = new FinancialRecord[1024];
+    // Written after the slot it covers, so readers that see the count also
+    // see the record
+    private volatile int slotCount;
+    private volatile int liveCount;
+
+    @Override
+    public int add(FinancialRecord record) {
+        int slot = slotCount;
+        if (slot == slots.length) {
+            slots = Arrays.copyOf(slots, slot + (slot >> 1));
+        }
+        slots[slot] = record;
+        liveCount++;
+        slotCount = slot + 1;
+        return slot;
+    }
+
+    @Override
+    public FinancialRecord get(int slot) {
+        if (slot >= slotCount) {
+            return null;
+        }
+        return slots[slot];
+    }
+
+    @Override
+    public void remove(int slot) {
+        FinancialRecord[] current = slots;
+        if (slot < slotCount && current[slot] != null) {
+            current[slot] = null;
+            liveCount--;
+        }
+    }
+
+    @Override
+    public int size() {
+        return liveCount;
+    }
+
+    @Override
+    public int slotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public List<FinancialRecord> toList() {
+        int count = slotCount;
+        FinancialRecord[] current = slots;
+        List<FinancialRecord> list = new ArrayList<>(liveCount);
+        for (int slot = 0; slot < count; slot++) {
+            if (current[slot] != null) {
+                list.add(current[slot]);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public ListRecordStore compact(int[] remap) {
+        ListRecordStore compacted = new ListRecordStore();
+        for (int slot = 0; slot < remap.length; slot++) {
+            FinancialRecord record = get(slot);
+            remap[slot] = record == null ? -1 : compacted.add(record);
+        }
+        return compacted;
+    }
+}
@@ -8,15 +8,19 @@ public class LoginFrame extends JFrame {
     private JPasswordField passwordField;
     private JComboBox<String> userTypeCombo;
     private UserManager userManager;
-    private FinanceManager financeManager;
+    private java.util.concurrent.CompletableFuture<FinanceManager> financeManager;
+    // Runs the password check and the wait for the records off the EDT
+    private final UiScheduler scheduler = new UiScheduler(error -> showError(error.getMessage()));
     private Color primaryColor = new Color(103, 58, 183); // Deep Purple
     private Color accentColor = new Color(255, 171, 64);  // Orange
     private Color backgroundColor = new Color(245, 245, 245);
 
     public LoginFrame() {
         super("FinanceTracker Pro");
-        this.userManager = new UserManager();
-        this.financeManager = new FinanceManager();
+        this.userManager = UserManager.shared();
+        // Usually already loading since Main started it; records are only
+        // needed once a regular user has logged in
+        this.financeManager = FinanceManager.loadShared();
 
         // Set custom frame appearance
         setUndecorated(true);
@@ -227,20 +231,41 @@ public class LoginFrame extends JFrame {
             return;
         }
 
-        User user = userManager.getUser(username);
-        if (user != null && user.authenticate(password)) {
-            if (userType.equals("Admin") && user instanceof AdminUser) {
-                new AdminDashboard(userManager).setVisible(true);
-                dispose();
-            } else if (userType.equals("Regular User") && user instanceof RegularUser) {
-                UserDashboard dashboard = new UserDashboard(financeManager, (RegularUser) user);
-                dashboard.showDashboard();
-                dispose();
+        // Password hashing is deliberately slow; check it off the EDT. A second
+        // click replaces the first attempt instead of opening two dashboards.
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        scheduler.submit("login", () -> userManager.authenticateAsync(username, password).join(), authenticated -> {
+            setCursor(Cursor.getDefaultCursor());
+            if (authenticated) {
+                openDashboard(userManager.getUser(username), userType);
             } else {
-                showError("Invalid user type selected");
+                showError("Invalid username or password");
             }
+        }, error -> {
+            setCursor(Cursor.getDefaultCursor());
+            showError("Could not check password: " + error.getMessage());
+        });
+    }
+
+    private void openDashboard(User user, String userType) {
+        if (userType.equals("Admin") && user instanceof AdminUser) {
+            new AdminDashboard(userManager).setVisible(true);
+            dispose();
+        } else if (userType.equals("Regular User") && user instanceof RegularUser) {
+            if (!financeManager.isDone()) {
+                setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+            }
+            scheduler.submit("login", financeManager::join, manager -> {
+                setCursor(Cursor.getDefaultCursor());
+                UserDashboard dashboard = new UserDashboard(manager, (RegularUser) user);
+                dashboard.showDashboard();
+                dispose();
+            }, error -> {
+                setCursor(Cursor.getDefaultCursor());
+                showError("Could not load records: " + error.getMessage());
+            });
         } else {
-            showError("Invalid username or password");
+            showError("Invalid user type selected");
         }
     }
 
@@ -266,4 +291,10 @@ public class LoginFrame extends JFrame {
     public void showLogin() {
         setVisible(true);
     }
+
+    @Override
+    public void dispose() {
+        scheduler.close();
+        super.dispose();
+    }
 }
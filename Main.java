@@ -3,6 +3,14 @@ import javax.swing.UIManager;
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--server")) {
+            FinanceServer.serve(args);
+            return;
+        }
+
+        // Read the records in the background while the login window comes up
+        FinanceManager.loadShared();
+
         try {
             // Use Nimbus look and feel (modern built-in L&F)
             for (UIManager.LookAndFeelInfo info : UIManager.getInstalledLookAndFeels()) {
@@ -0,0 +1,443 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Versioned binary snapshot that is read through FileChannel.map instead of
+// being deserialized. Layout (big-endian):
+//
+//   header (64 bytes)  magic, version, record size, record count,
+//                      journal generation, string table offset, string count,
+//                      flags (version 3), record id offset (version 2),
+//                      user index offset (version 3)
+//   records            fixed 32-byte rows: epoch millis (UTC), amount,
+//                      type id, category id, username id, description id
+//   record ids         one long per row (version 2)
+//   user index         user count, then per user its username id, row
+//                      count and first entry; then the row numbers of every
+//                      user's records, grouped by user (version 3)
+//   string table       (count + 1) long offsets, then the UTF-8 bytes
+//
+// The writer pads so every long is 8-byte aligned: the user index starts 4
+// bytes past a multiple of 8, which lines up its 16-byte entries after the
+// count, and the string table starts on a multiple of 8. Version 3 files
+// written before that have unaligned longs there; they still read.
+//
+// Version 1 files have no ids; their rows get ids 1..count in file order,
+// which is what FinanceManager assigned when it loaded them.
+//
+// Every string is stored once and referred to by id; a null string is id -1.
+// Opening a file only maps it and reads the user index; rows and strings
+// are decoded when a record is asked for.
+public class MappedRecordFile {
+    public static final SnapshotFormat FORMAT = new Format();
+
+    private static final long MAGIC = 0x46494E5245433031L; // "FINREC01"
+    private static final int VERSION = 3;
+    private static final int IDS_ASCENDING = 1;
+    private static final int NULL_STRING = -1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 32;
+    // Mapped in 1 GiB windows; a multiple of RECORD_SIZE and of 8, so rows,
+    // ids and aligned longs never straddle two windows. String bytes and the
+    // unaligned longs of older files may, and are read across the boundary.
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private final MappedByteBuffer[] chunks;
+    private final long recordCount;
+    private final long generation;
+    private final long stringTableOffset;
+    private final long stringBytesOffset;
+    private final int stringCount;
+    // -1 for version 1 files
+    private final long idsOffset;
+    private final boolean idsAscending;
+    // Username -> {row count, offset of its row numbers}; null before version 3
+    private final Map<String, long[]> userRows;
+    // Types, categories and usernames repeat across rows; keep their decoded form
+    private final String[] sharedStrings;
+
+    private MappedRecordFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(file.getFileName() + " is too short to be a record file");
+            }
+            int chunkCount = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+            chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+            }
+        }
+
+        ByteBuffer header = chunks[0];
+        if (header.getLong(0) != MAGIC) {
+            throw new IOException(file.getFileName() + " is not a record file");
+        }
+        int version = header.getInt(8);
+        if (version < 1 || version > VERSION || header.getInt(12) != RECORD_SIZE) {
+            throw new IOException("Unsupported record file version " + version);
+        }
+        recordCount = header.getLong(16);
+        generation = header.getLong(24);
+        stringTableOffset = header.getLong(32);
+        stringCount = header.getInt(40);
+        stringBytesOffset = stringTableOffset + (stringCount + 1L) * Long.BYTES;
+        sharedStrings = new String[stringCount];
+        idsOffset = version >= 2 ? header.getLong(48) : -1;
+        idsAscending = idsOffset < 0 || (version >= 3 && (header.getInt(44) & IDS_ASCENDING) != 0);
+        userRows = version >= 3 ? readUserIndex(header.getLong(56)) : null;
+    }
+
+    private Map<String, long[]> readUserIndex(long offset) {
+        int users = getInt(offset);
+        long rowsOffset = offset + Integer.BYTES + (long) users * 16;
+        Map<String, long[]> index = new HashMap<>(users * 2);
+        for (int i = 0; i < users; i++) {
+            long entry = offset + Integer.BYTES + (long) i * 16;
+            index.put(sharedString(getInt(entry)),
+                new long[] {getInt(entry + 4), rowsOffset + getLong(entry + 8) * Integer.BYTES});
+        }
+        return index;
+    }
+
+    public static MappedRecordFile open(Path file) throws IOException {
+        return new MappedRecordFile(file);
+    }
+
+    public long recordCount() {
+        return recordCount;
+    }
+
+    public long generation() {
+        return generation;
+    }
+
+    // Whether rows can be found by user and by id without a scan
+    public boolean isIndexed() {
+        return userRows != null && idsAscending;
+    }
+
+    public Set<String> usernames() {
+        return Collections.unmodifiableSet(userRows.keySet());
+    }
+
+    // Rows of the user's records in file order; needs an indexed file
+    public int[] rowsOf(String username) {
+        long[] entry = userRows.get(username);
+        if (entry == null) {
+            return new int[0];
+        }
+        int[] rows = new int[(int) entry[0]];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = getInt(entry[1] + (long) i * Integer.BYTES);
+        }
+        return rows;
+    }
+
+    // Binary search over the ids; returns -1 if no row has the id. Needs
+    // an indexed file.
+    public long rowOf(long id) {
+        long low = 0;
+        long high = recordCount - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            long found = idAt(middle);
+            if (found < id) {
+                low = middle + 1;
+            } else if (found > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    // 0 for an empty file; needs an indexed file
+    public long maxId() {
+        return recordCount == 0 ? 0 : idAt(recordCount - 1);
+    }
+
+    public FinancialRecord read(long index) {
+        long position = HEADER_SIZE + index * RECORD_SIZE;
+        ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+        int offset = (int) (position & (CHUNK_SIZE - 1));
+
+        long epochMillis = chunk.getLong(offset);
+        double amount = chunk.getDouble(offset + 8);
+        String type = sharedString(chunk.getInt(offset + 16));
+        String category = sharedString(chunk.getInt(offset + 20));
+        String username = sharedString(chunk.getInt(offset + 24));
+        String description = string(chunk.getInt(offset + 28));
+        FinancialRecord record = new FinancialRecord(amount, type, description, category, username,
+            LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC));
+        record.setId(idAt(index));
+        return record;
+    }
+
+    public long idAt(long index) {
+        return idsOffset < 0 ? index + 1 : getLong(idsOffset + index * Long.BYTES);
+    }
+
+    public String usernameAt(long index) {
+        long position = HEADER_SIZE + index * RECORD_SIZE + 24;
+        return sharedString(chunks[(int) (position >>> CHUNK_BITS)].getInt((int) (position & (CHUNK_SIZE - 1))));
+    }
+
+    private String sharedString(int id) {
+        if (id == NULL_STRING) {
+            return null;
+        }
+        String value = sharedStrings[id];
+        if (value == null) {
+            value = string(id);
+            sharedStrings[id] = value;
+        }
+        return value;
+    }
+
+    private String string(int id) {
+        if (id == NULL_STRING) {
+            return null;
+        }
+        long start = getLong(stringTableOffset + (long) id * Long.BYTES);
+        long end = getLong(stringTableOffset + (id + 1L) * Long.BYTES);
+        return new String(bytes(stringBytesOffset + start, (int) (end - start)), StandardCharsets.UTF_8);
+    }
+
+    private byte[] bytes(long position, int length) {
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+            int offset = (int) (position & (CHUNK_SIZE - 1));
+            int count = Math.min(length - copied, chunk.capacity() - offset);
+            chunk.get(offset, bytes, copied, count);
+            copied += count;
+            position += count;
+        }
+        return bytes;
+    }
+
+    private long getLong(long position) {
+        ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+        int offset = (int) (position & (CHUNK_SIZE - 1));
+        if (offset <= chunk.capacity() - Long.BYTES) {
+            return chunk.getLong(offset);
+        }
+        return ByteBuffer.wrap(bytes(position, Long.BYTES)).getLong();
+    }
+
+    private int getInt(long position) {
+        ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+        int offset = (int) (position & (CHUNK_SIZE - 1));
+        if (offset <= chunk.capacity() - Integer.BYTES) {
+            return chunk.getInt(offset);
+        }
+        return ByteBuffer.wrap(bytes(position, Integer.BYTES)).getInt();
+    }
+
+    public static void write(Path file, List<FinancialRecord> records, long generation) throws IOException {
+        StringPool strings = new StringPool();
+        List<byte[]> encoded = new ArrayList<>();
+        int[] userIds = new int[records.size()];
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            channel.position(HEADER_SIZE);
+            int row = 0;
+            for (FinancialRecord record : records) {
+                if (buffer.remaining() < RECORD_SIZE) {
+                    drain(channel, buffer);
+                }
+                buffer.putLong(record.getDateTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+                buffer.putDouble(record.getAmount());
+                buffer.putInt(intern(strings, encoded, record.getType()));
+                buffer.putInt(intern(strings, encoded, record.getCategory()));
+                int userId = intern(strings, encoded, record.getUsername());
+                userIds[row++] = userId;
+                buffer.putInt(userId);
+                buffer.putInt(intern(strings, encoded, record.getDescription()));
+            }
+
+            long idsOffset = HEADER_SIZE + (long) records.size() * RECORD_SIZE;
+            int flags = IDS_ASCENDING;
+            long previousId = Long.MIN_VALUE;
+            for (FinancialRecord record : records) {
+                if (buffer.remaining() < Long.BYTES) {
+                    drain(channel, buffer);
+                }
+                buffer.putLong(record.getId());
+                if (record.getId() <= previousId) {
+                    flags &= ~IDS_ASCENDING;
+                }
+                previousId = record.getId();
+            }
+
+            // Counting sort of the rows by username id
+            long userIndexOffset = idsOffset + (long) records.size() * Long.BYTES + Integer.BYTES;
+            int[] firstRow = new int[encoded.size() + 1];
+            int users = 0;
+            for (int userId : userIds) {
+                if (userId != NULL_STRING && firstRow[userId + 1]++ == 0) {
+                    users++;
+                }
+            }
+            if (buffer.remaining() < 2 * Integer.BYTES) {
+                drain(channel, buffer);
+            }
+            buffer.putInt(0);
+            buffer.putInt(users);
+            for (int id = 0; id < encoded.size(); id++) {
+                int count = firstRow[id + 1];
+                firstRow[id + 1] = firstRow[id] + count;
+                if (count > 0) {
+                    if (buffer.remaining() < 16) {
+                        drain(channel, buffer);
+                    }
+                    buffer.putInt(id).putInt(count).putLong(firstRow[id]);
+                }
+            }
+            int[] rowsByUser = new int[records.size()];
+            int[] next = Arrays.copyOf(firstRow, encoded.size());
+            for (int i = 0; i < userIds.length; i++) {
+                if (userIds[i] != NULL_STRING) {
+                    rowsByUser[next[userIds[i]]++] = i;
+                }
+            }
+            int indexedRows = firstRow[encoded.size()];
+            for (int i = 0; i < indexedRows; i++) {
+                if (buffer.remaining() < Integer.BYTES) {
+                    drain(channel, buffer);
+                }
+                buffer.putInt(rowsByUser[i]);
+            }
+
+            long stringTableOffset = userIndexOffset + Integer.BYTES + (long) users * 16
+                + (long) indexedRows * Integer.BYTES;
+            if (stringTableOffset % Long.BYTES != 0) {
+                if (buffer.remaining() < Integer.BYTES) {
+                    drain(channel, buffer);
+                }
+                buffer.putInt(0);
+                stringTableOffset += Integer.BYTES;
+            }
+            long offset = 0;
+            for (int i = 0; i <= encoded.size(); i++) {
+                if (buffer.remaining() < Long.BYTES) {
+                    drain(channel, buffer);
+                }
+                buffer.putLong(offset);
+                if (i < encoded.size()) {
+                    offset += encoded.get(i).length;
+                }
+            }
+            for (byte[] bytes : encoded) {
+                int written = 0;
+                while (written < bytes.length) {
+                    if (!buffer.hasRemaining()) {
+                        drain(channel, buffer);
+                    }
+                    int length = Math.min(buffer.remaining(), bytes.length - written);
+                    buffer.put(bytes, written, length);
+                    written += length;
+                }
+            }
+            drain(channel, buffer);
+
+            buffer.putLong(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(RECORD_SIZE);
+            buffer.putLong(records.size());
+            buffer.putLong(generation);
+            buffer.putLong(stringTableOffset);
+            buffer.putInt(encoded.size());
+            buffer.putInt(flags);
+            buffer.putLong(idsOffset);
+            buffer.putLong(userIndexOffset);
+            while (buffer.position() < HEADER_SIZE) {
+                buffer.put((byte) 0);
+            }
+            channel.position(0);
+            drain(channel, buffer);
+            channel.force(true);
+        }
+    }
+
+    private static int intern(StringPool strings, List<byte[]> encoded, String value) {
+        if (value == null) {
+            return NULL_STRING;
+        }
+        int id = strings.idOf(value);
+        if (id == encoded.size()) {
+            encoded.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // One-shot conversion of the serialized snapshot (plus its journal) into
+    // the mapped format. The source files are read, not opened for writing,
+    // and left in place.
+    public static void migrate(String serializedFile, String mappedFile) throws IOException {
+        List<FinancialRecord> records = RecordJournal.readRecords(serializedFile,
+            FinanceManager.formatFor(serializedFile));
+        Path target = Paths.get(mappedFile);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        write(temp, records, 0);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Migrated " + records.size() + " records from " + serializedFile + " to " + mappedFile);
+    }
+
+    // Usage: java MappedRecordFile [financial_records.dat] [financial_records.bin]
+    public static void main(String[] args) throws IOException {
+        migrate(args.length > 0 ? args[0] : "financial_records.dat",
+            args.length > 1 ? args[1] : "financial_records.bin");
+    }
+
+    private static class Format implements SnapshotFormat {
+        @Override
+        public Snapshot read(Path file) throws IOException {
+            MappedRecordFile mapped = open(file);
+            return new Snapshot(new MappedRecordStore(mapped), mapped.generation());
+        }
+
+        @Override
+        public RecordStore emptyStore() {
+            return new MappedRecordStore(null);
+        }
+
+        @Override
+        public void write(Path file, List<FinancialRecord> records, long generation) throws IOException {
+            MappedRecordFile.write(file, records, generation);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+// Records served from a memory-mapped snapshot, with later additions kept
+// in columnar form on the heap. Slots below the snapshot's record count map
+// straight to its rows; removing one only marks it in a bitmap. Compacting
+// only drops tombstones from the heap part: the mapped rows stay until the
+// journal writes the next snapshot.
+public class MappedRecordStore implements RecordStore {
+    private final MappedRecordFile file;
+    private final int baseCount;
+    // Sized up front so the writer never reallocates it under a reader
+    private final BitSet removed;
+    private volatile int removedCount;
+    private final ColumnarRecordStore appended;
+
+    // A null file gives a store with nothing mapped yet
+    public MappedRecordStore(MappedRecordFile file) {
+        this.file = file;
+        long count = file == null ? 0 : file.recordCount();
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Record file holds more than " + Integer.MAX_VALUE + " records");
+        }
+        this.baseCount = (int) count;
+        this.removed = new BitSet(baseCount);
+        this.appended = new ColumnarRecordStore();
+    }
+
+    private MappedRecordStore(MappedRecordStore source, ColumnarRecordStore appended) {
+        this.file = source.file;
+        this.baseCount = source.baseCount;
+        this.removed = (BitSet) source.removed.clone();
+        this.removedCount = source.removedCount;
+        this.appended = appended;
+    }
+
+    @Override
+    public int add(FinancialRecord record) {
+        return baseCount + appended.add(record);
+    }
+
+    @Override
+    public FinancialRecord get(int slot) {
+        if (slot >= baseCount) {
+            return appended.get(slot - baseCount);
+        }
+        return removed.get(slot) ? null : file.read(slot);
+    }
+
+    @Override
+    public String usernameAt(int slot) {
+        if (slot >= baseCount) {
+            return appended.usernameAt(slot - baseCount);
+        }
+        return removed.get(slot) ? null : file.usernameAt(slot);
+    }
+
+    @Override
+    public long idAt(int slot) {
+        if (slot >= baseCount) {
+            return appended.idAt(slot - baseCount);
+        }
+        return removed.get(slot) ? 0 : file.idAt(slot);
+    }
+
+    // An indexed file lists each user's rows and keeps ids in row order, so
+    // FinanceManager can skip reading every row's owner and id on load
+    public boolean isIndexed() {
+        return file != null && file.isIndexed();
+    }
+
+    public Set<String> mappedUsernames() {
+        return file.usernames();
+    }
+
+    // The user's live mapped slots, in order; needs an indexed file
+    public int[] mappedSlotsOf(String username) {
+        int[] rows = file.rowsOf(username);
+        int live = 0;
+        for (int row : rows) {
+            if (!removed.get(row)) {
+                rows[live++] = row;
+            }
+        }
+        return live == rows.length ? rows : Arrays.copyOf(rows, live);
+    }
+
+    public long maxMappedId() {
+        return file.maxId();
+    }
+
+    @Override
+    public int slotOfId(long id) {
+        if (!isIndexed()) {
+            return -1;
+        }
+        long row = file.rowOf(id);
+        return row < 0 || removed.get((int) row) ? -1 : (int) row;
+    }
+
+    @Override
+    public void remove(int slot) {
+        if (slot >= baseCount) {
+            appended.remove(slot - baseCount);
+        } else if (!removed.get(slot)) {
+            removed.set(slot);
+            removedCount++;
+        }
+    }
+
+    @Override
+    public int size() {
+        return baseCount - removedCount + appended.size();
+    }
+
+    @Override
+    public int slotCount() {
+        return baseCount + appended.slotCount();
+    }
+
+    @Override
+    public List<FinancialRecord> toList() {
+        int count = slotCount();
+        List<FinancialRecord> list = new ArrayList<>(size());
+        for (int slot = 0; slot < count; slot++) {
+            FinancialRecord record = get(slot);
+            if (record != null) {
+                list.add(record);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public MappedRecordStore compact(int[] remap) {
+        for (int slot = 0; slot < baseCount; slot++) {
+            remap[slot] = removed.get(slot) ? -1 : slot;
+        }
+        int[] appendedRemap = new int[remap.length - baseCount];
+        ColumnarRecordStore compacted = appended.compact(appendedRemap);
+        for (int i = 0; i < appendedRemap.length; i++) {
+            remap[baseCount + i] = appendedRemap[i] < 0 ? -1 : baseCount + appendedRemap[i];
+        }
+        return new MappedRecordStore(this, compacted);
+    }
+}
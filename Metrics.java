@@ -0,0 +1,273 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Process-wide counters, latency timers and gauges for the persistence,
+// query and UI hot paths. Callers look a metric up once, keep it in a
+// static final field, and then record without allocating or locking:
+// counters are LongAdders, timers a log-linear histogram over AtomicLongArray
+// buckets (HdrHistogram-style, about 3% relative error).
+//
+// Every metric is also registered as an MXBean under "finance:type=...,name=...",
+// so jconsole/VisualVM show the same numbers as the admin Diagnostics tab.
+public final class Metrics {
+    private static final Map<String, Metric> METRICS = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return (Counter) METRICS.computeIfAbsent(name, n -> register(new Counter(n)));
+    }
+
+    public static Timer timer(String name) {
+        return (Timer) METRICS.computeIfAbsent(name, n -> register(new Timer(n)));
+    }
+
+    // Replaces any gauge of the same name, so the newest owner reports
+    public static Gauge gauge(String name, LongSupplier value) {
+        Gauge gauge = new Gauge(name, value);
+        Metric previous = METRICS.put(name, gauge);
+        if (previous != null) {
+            unregister(previous);
+        }
+        return register(gauge);
+    }
+
+    // In name order
+    public static List<Metric> all() {
+        return new ArrayList<>(METRICS.values());
+    }
+
+    private static <T extends Metric> T register(T metric) {
+        try {
+            ObjectName objectName = metric.objectName();
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metric, objectName);
+        } catch (JMException e) {
+            System.err.println("Error registering metric " + metric.getName() + ": " + e.getMessage());
+        }
+        return metric;
+    }
+
+    private static void unregister(Metric metric) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metric.objectName());
+        } catch (JMException e) {
+            System.err.println("Error unregistering metric " + metric.getName() + ": " + e.getMessage());
+        }
+    }
+
+    public abstract static class Metric {
+        private final String name;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // One line for the Diagnostics tab
+        public abstract String summary();
+
+        ObjectName objectName() throws JMException {
+            return new ObjectName("finance:type=" + getClass().getSimpleName() + ",name=" + ObjectName.quote(name));
+        }
+    }
+
+    public interface CounterMXBean {
+        String getName();
+
+        long getCount();
+    }
+
+    public static final class Counter extends Metric implements CounterMXBean {
+        private final LongAdder count = new LongAdder();
+
+        Counter(String name) {
+            super(name);
+        }
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public String summary() {
+            return String.format("%,d", getCount());
+        }
+    }
+
+    public interface GaugeMXBean {
+        String getName();
+
+        long getValue();
+    }
+
+    public static final class Gauge extends Metric implements GaugeMXBean {
+        private final LongSupplier value;
+
+        Gauge(String name, LongSupplier value) {
+            super(name);
+            this.value = value;
+        }
+
+        @Override
+        public long getValue() {
+            return value.getAsLong();
+        }
+
+        @Override
+        public String summary() {
+            return String.format("%,d", getValue());
+        }
+    }
+
+    public interface TimerMXBean {
+        String getName();
+
+        long getCount();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP90Millis();
+
+        double getP99Millis();
+
+        double getMaxMillis();
+    }
+
+    // Durations in nanoseconds. Values below 32 get a bucket each; above
+    // that every power of two is split into 32 linear sub-buckets.
+    public static final class Timer extends Metric implements TimerMXBean {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        Timer(String name) {
+            super(name);
+        }
+
+        // Usage: long start = System.nanoTime(); ...; timer.recordSince(start);
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(bucketOf(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / (double) n / 1e6;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return percentileNanos(0.50) / 1e6;
+        }
+
+        @Override
+        public double getP90Millis() {
+            return percentileNanos(0.90) / 1e6;
+        }
+
+        @Override
+        public double getP99Millis() {
+            return percentileNanos(0.99) / 1e6;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        // Highest value that falls in the same bucket as the percentile, capped
+        // at the recorded maximum
+        public long percentileNanos(double fraction) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += buckets.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(highestValueIn(i), maxNanos.get());
+                }
+            }
+            return maxNanos.get();
+        }
+
+        @Override
+        public String summary() {
+            return String.format("n=%,d mean=%.3f p50=%.3f p90=%.3f p99=%.3f max=%.3f ms", getCount(),
+                getMeanMillis(), getP50Millis(), getP90Millis(), getP99Millis(), getMaxMillis());
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        static long highestValueIn(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long subBucket = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+        }
+    }
+}
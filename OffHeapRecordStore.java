@@ -0,0 +1,241 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Off-heap storage: rows live in direct ByteBuffers outside the Java heap,
+// so tens of millions of records leave the garbage collector almost nothing
+// to trace or copy. Each row is a fixed 48-byte slot (id, epoch millis
+// read as UTC, amount, type/category/username ids, description location);
+// descriptions are UTF-8 bytes in a separate append-only text area. Types,
+// categories and usernames have few distinct values and stay dictionary-
+// encoded on the heap.
+//
+// Reads go through the RecordStore interface, so get() and toList() hand
+// out materialized FinancialRecords; idAt() and usernameAt() decode just
+// the field they need. Direct memory is capped by -XX:MaxDirectMemorySize,
+// which defaults to the maximum heap size.
+public class OffHeapRecordStore implements RecordStore {
+    private static final int ROW_SIZE = 48;
+    // 64K rows (3 MiB) per row chunk
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_ROWS = 1 << CHUNK_BITS;
+    private static final int TEXT_CHUNK_SIZE = 1 << 22;
+
+    // Row layout
+    private static final int ID = 0;
+    private static final int EPOCH_MILLIS = 8;
+    private static final int AMOUNT = 16;
+    // Type id + 1, so that 0 marks a removed slot
+    private static final int TYPE = 24;
+    private static final int CATEGORY = 28;
+    private static final int USERNAME = 32;
+    private static final int TEXT_CHUNK = 36;
+    private static final int TEXT_OFFSET = 40;
+    // -1 for a null description
+    private static final int TEXT_LENGTH = 44;
+    private static final int TOMBSTONE = 0;
+
+    // Chunk tables are replaced when they grow and published through
+    // volatile fields; a chunk's bytes are written before the slotCount
+    // that covers them
+    private volatile ByteBuffer[] rowChunks = new ByteBuffer[16];
+    private volatile ByteBuffer[] textChunks = new ByteBuffer[16];
+    // Writer only: where the next description goes
+    private int textChunk = -1;
+    private int textPosition;
+
+    private final StringPool typePool = new StringPool();
+    private final StringPool categoryPool = new StringPool();
+    private final StringPool usernamePool = new StringPool();
+
+    private volatile int slotCount;
+    private volatile int liveCount;
+
+    @Override
+    public int add(FinancialRecord record) {
+        int slot = slotCount;
+        int chunkIndex = slot >>> CHUNK_BITS;
+        if (chunkIndex == rowChunks.length) {
+            rowChunks = Arrays.copyOf(rowChunks, chunkIndex * 2);
+        }
+        ByteBuffer chunk = rowChunks[chunkIndex];
+        if (chunk == null) {
+            chunk = ByteBuffer.allocateDirect(CHUNK_ROWS * ROW_SIZE);
+            rowChunks[chunkIndex] = chunk;
+        }
+
+        String text = record.getDescription();
+        byte[] description = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+        int offset = appendText(description);
+        int base = (slot & (CHUNK_ROWS - 1)) * ROW_SIZE;
+        chunk.putLong(base + ID, record.getId());
+        chunk.putLong(base + EPOCH_MILLIS, record.getDateTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+        chunk.putDouble(base + AMOUNT, record.getAmount());
+        chunk.putInt(base + TYPE, typePool.idOf(record.getType()) + 1);
+        chunk.putInt(base + CATEGORY, categoryPool.idOf(record.getCategory()));
+        chunk.putInt(base + USERNAME, usernamePool.idOf(record.getUsername()));
+        chunk.putInt(base + TEXT_CHUNK, textChunk);
+        chunk.putInt(base + TEXT_OFFSET, offset);
+        chunk.putInt(base + TEXT_LENGTH, text == null ? -1 : description.length);
+        liveCount++;
+        slotCount = slot + 1;
+        return slot;
+    }
+
+    // Descriptions never straddle two chunks; one longer than a chunk gets a
+    // chunk of its own
+    private int appendText(byte[] bytes) {
+        ByteBuffer chunk = textChunk < 0 ? null : textChunks[textChunk];
+        if (chunk == null || chunk.capacity() - textPosition < bytes.length) {
+            textChunk++;
+            if (textChunk == textChunks.length) {
+                textChunks = Arrays.copyOf(textChunks, textChunk * 2);
+            }
+            chunk = ByteBuffer.allocateDirect(Math.max(TEXT_CHUNK_SIZE, bytes.length));
+            textChunks[textChunk] = chunk;
+            textPosition = 0;
+        }
+        int offset = textPosition;
+        chunk.put(offset, bytes);
+        textPosition += bytes.length;
+        return offset;
+    }
+
+    @Override
+    public FinancialRecord get(int slot) {
+        View view = new View();
+        return view.moveTo(slot) ? view.toRecord() : null;
+    }
+
+    @Override
+    public long idAt(int slot) {
+        View view = new View();
+        return view.moveTo(slot) ? view.id() : 0;
+    }
+
+    @Override
+    public String usernameAt(int slot) {
+        View view = new View();
+        return view.moveTo(slot) ? view.username() : null;
+    }
+
+    @Override
+    public void remove(int slot) {
+        if (slot >= slotCount) {
+            return;
+        }
+        ByteBuffer chunk = rowChunks[slot >>> CHUNK_BITS];
+        int base = (slot & (CHUNK_ROWS - 1)) * ROW_SIZE;
+        if (chunk.getInt(base + TYPE) != TOMBSTONE) {
+            chunk.putInt(base + TYPE, TOMBSTONE);
+            liveCount--;
+        }
+    }
+
+    @Override
+    public int size() {
+        return liveCount;
+    }
+
+    @Override
+    public int slotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public List<FinancialRecord> toList() {
+        int count = slotCount;
+        List<FinancialRecord> list = new ArrayList<>(liveCount);
+        View view = new View();
+        for (int slot = 0; slot < count; slot++) {
+            if (view.moveTo(slot)) {
+                list.add(view.toRecord());
+            }
+        }
+        return list;
+    }
+
+    // Goes through add so the text area only keeps descriptions still in use;
+    // the old chunks are freed once nothing references this store
+    @Override
+    public OffHeapRecordStore compact(int[] remap) {
+        OffHeapRecordStore compacted = new OffHeapRecordStore();
+        View view = new View();
+        for (int slot = 0; slot < remap.length; slot++) {
+            remap[slot] = view.moveTo(slot) ? compacted.add(view.toRecord()) : -1;
+        }
+        return compacted;
+    }
+
+    // Reusable window onto one row; fields are decoded from off-heap memory
+    // on each call. One per thread.
+    private final class View {
+        private ByteBuffer chunk;
+        private int base;
+        // Read once: a concurrent remove clears the row's type
+        private int type;
+
+        // False, leaving the view where it was, if the slot holds no record
+        boolean moveTo(int slot) {
+            if (slot < 0 || slot >= slotCount) {
+                return false;
+            }
+            ByteBuffer rows = rowChunks[slot >>> CHUNK_BITS];
+            int rowBase = (slot & (CHUNK_ROWS - 1)) * ROW_SIZE;
+            int rowType = rows.getInt(rowBase + TYPE);
+            if (rowType == TOMBSTONE) {
+                return false;
+            }
+            chunk = rows;
+            base = rowBase;
+            type = rowType;
+            return true;
+        }
+
+        long id() {
+            return chunk.getLong(base + ID);
+        }
+
+        long epochMillis() {
+            return chunk.getLong(base + EPOCH_MILLIS);
+        }
+
+        double amount() {
+            return chunk.getDouble(base + AMOUNT);
+        }
+
+        String type() {
+            return typePool.valueOf(type - 1);
+        }
+
+        String category() {
+            return categoryPool.valueOf(chunk.getInt(base + CATEGORY));
+        }
+
+        String username() {
+            return usernamePool.valueOf(chunk.getInt(base + USERNAME));
+        }
+
+        String description() {
+            int length = chunk.getInt(base + TEXT_LENGTH);
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            textChunks[chunk.getInt(base + TEXT_CHUNK)].get(chunk.getInt(base + TEXT_OFFSET), bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        FinancialRecord toRecord() {
+            FinancialRecord record = new FinancialRecord(amount(), type(), description(), category(), username(),
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis()), ZoneOffset.UTC));
+            record.setId(id());
+            return record;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// PBKDF2-HMAC-SHA256 password hashes, stored as
+//
+//   pbkdf2-sha256$<iterations>$<base64 salt>$<base64 hash>
+//
+// Each hash carries its own iteration count, so the cost can be raised per
+// deployment without invalidating stored hashes. Credentials without the
+// prefix are plaintext from before hashing and still verify, so accounts can
+// be migrated on their next login.
+public final class PasswordHasher {
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    // Floor and ceiling for calibration, whatever the hardware
+    private static final int MIN_ITERATIONS = 100_000;
+    private static final int MAX_ITERATIONS = 5_000_000;
+    private static final int CALIBRATION_ITERATIONS = 10_000;
+    private static final long CALIBRATION_NANOS = 500_000_000L;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+
+    public PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be positive: " + iterations);
+        }
+        this.iterations = iterations;
+    }
+
+    // Picks the iteration count that makes one hash take about targetMillis
+    // on this machine
+    public static PasswordHasher calibrated(long targetMillis) {
+        byte[] salt = new byte[SALT_BYTES];
+        char[] password = "calibration".toCharArray();
+        // The first rounds run interpreted; keep the fastest of about half a
+        // second's worth so the JIT has caught up
+        long best = Long.MAX_VALUE;
+        long deadline = System.nanoTime() + CALIBRATION_NANOS;
+        for (int round = 0; round < 3 || System.nanoTime() - deadline < 0; round++) {
+            long start = System.nanoTime();
+            derive(password, salt, CALIBRATION_ITERATIONS);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        long target = targetMillis * 1_000_000L;
+        long iterations = clamp(target * CALIBRATION_ITERATIONS / best);
+        // Short runs overestimate throughput; correct once at full length
+        long start = System.nanoTime();
+        derive(password, salt, (int) iterations);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        return new PasswordHasher((int) clamp((long) ((double) iterations * target / elapsed)));
+    }
+
+    private static long clamp(long iterations) {
+        return Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations));
+    }
+
+    public int iterations() {
+        return iterations;
+    }
+
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = derive(password.toCharArray(), salt, iterations);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(hash);
+    }
+
+    // Plaintext credentials, and hashes made at well under the current cost,
+    // should be replaced after the next successful login
+    public boolean needsRehash(String credential) {
+        return !isHashed(credential) || iterationsOf(credential) < iterations / 2;
+    }
+
+    public static boolean isHashed(String credential) {
+        return credential != null && credential.startsWith(PREFIX + "$");
+    }
+
+    // Constant-time in the length of the hash; plaintext credentials are
+    // compared as bytes the same way
+    public static boolean verify(String credential, String password) {
+        if (credential == null || password == null) {
+            return false;
+        }
+        if (!isHashed(credential)) {
+            return MessageDigest.isEqual(credential.getBytes(StandardCharsets.UTF_8),
+                password.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = credential.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(expected, derive(password.toCharArray(), salt, iterations));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error reading password hash: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static int iterationsOf(String credential) {
+        try {
+            return Integer.parseInt(credential.split("\\$")[1]);
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static byte[] derive(char[] password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Password checks against PBKDF2 hashes (see PasswordHasher).
+//
+// - The cost is calibrated once per process so a hash takes about
+//   finance.auth.targetMillis (default 100) on this machine, or fixed with
+//   -Dfinance.auth.iterations.
+// - authenticateAsync() and hash() run on a small bounded pool, so the EDT
+//   never waits on the KDF and a burst of logins queues instead of starting
+//   a thread each; when the queue is full the future fails straight away.
+// - hashInBackground() runs on one low-priority thread of its own, one hash
+//   at a time, so hashing a whole users.dat never takes a login's place.
+// - A successful check is remembered for finance.auth.sessionTtlSeconds
+//   (default 300) as an HMAC of the password under a per-process key, so
+//   re-authenticating within a session costs one HMAC instead of a hash.
+//   Entries die with the credential they were checked against; a failed
+//   check leaves them alone.
+// - An unknown user or a missing password is checked against a dummy hash
+//   of the current cost, so the time taken doesn't tell which names exist.
+// - Hashes below the current cost, and plaintext accounts UserManager
+//   hasn't hashed yet, are rehashed in the background after their next
+//   successful login.
+public class Pbkdf2Authenticator implements Authenticator {
+    private static final int MAX_QUEUED = 32;
+    private static final int MAX_SESSIONS = 10_000;
+    private static final long IDLE_SECONDS = 30;
+    private static final long SESSION_TTL_NANOS = TimeUnit.SECONDS.toNanos(
+        Long.getLong("finance.auth.sessionTtlSeconds", 300));
+    private static final Metrics.Timer VERIFY_TIMER = Metrics.timer("auth.verify");
+    private static final Metrics.Timer HASH_TIMER = Metrics.timer("auth.hash");
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("auth.cacheHits");
+    private static final Metrics.Counter REHASHES = Metrics.counter("auth.rehashes");
+    private static final Metrics.Counter REJECTED = Metrics.counter("auth.rejected");
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final UserManager users;
+    private final ExecutorService pool;
+    private final ExecutorService background;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Set<String> rehashing = ConcurrentHashMap.newKeySet();
+    private final byte[] sessionKey = new byte[32];
+
+    private static final class Session {
+        final String credential;
+        final byte[] mac;
+        final long expiresAt;
+
+        Session(String credential, byte[] mac, long expiresAt) {
+            this.credential = credential;
+            this.mac = mac;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Calibrating takes a few hundred milliseconds, so it happens on first
+    // use (on the pool) and once per process
+    private static final class Cost {
+        static final PasswordHasher HASHER = create();
+
+        private static PasswordHasher create() {
+            Integer iterations = Integer.getInteger("finance.auth.iterations");
+            if (iterations != null) {
+                return new PasswordHasher(iterations);
+            }
+            PasswordHasher hasher = PasswordHasher.calibrated(Long.getLong("finance.auth.targetMillis", 100));
+            System.err.println("Password hashing calibrated to " + hasher.iterations() + " iterations");
+            return hasher;
+        }
+
+        // Checked instead of a real hash when there is none to check
+        static final String DUMMY = HASHER.hash(Long.toHexString(new SecureRandom().nextLong()));
+    }
+
+    public Pbkdf2Authenticator(UserManager users) {
+        this.users = users;
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(MAX_QUEUED), r -> {
+                Thread thread = new Thread(r, "auth-verifier-" + THREADS.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        // Logins are rare; don't keep idle threads around
+        executor.allowCoreThreadTimeOut(true);
+        this.pool = executor;
+        ThreadPoolExecutor backgroundExecutor = new ThreadPoolExecutor(1, 1, IDLE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "auth-background-hasher");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        backgroundExecutor.allowCoreThreadTimeOut(true);
+        this.background = backgroundExecutor;
+        new SecureRandom().nextBytes(sessionKey);
+        Metrics.gauge("auth.sessions", sessions::size);
+    }
+
+    // Runs the check on the calling thread; prefer authenticateAsync() on the EDT
+    @Override
+    public boolean authenticate(String username, String password) {
+        FinanceEvents.Authentication event = new FinanceEvents.Authentication();
+        event.begin();
+        User user = users.getUser(username);
+        boolean success = false;
+        boolean cached = false;
+        if (user != null && password != null) {
+            String credential = user.credential();
+            byte[] mac = mac(username, password);
+            if (isCached(username, credential, mac)) {
+                CACHE_HITS.increment();
+                success = true;
+                cached = true;
+            } else {
+                long start = System.nanoTime();
+                success = PasswordHasher.verify(credential, password);
+                VERIFY_TIMER.recordSince(start);
+                if (success) {
+                    remember(username, credential, mac);
+                    // Plaintext is checked first so a legacy login doesn't wait for calibration
+                    if (!PasswordHasher.isHashed(credential) || Cost.HASHER.needsRehash(credential)) {
+                        rehash(username, credential, password);
+                    }
+                }
+            }
+        } else {
+            long start = System.nanoTime();
+            PasswordHasher.verify(Cost.DUMMY, password == null ? "" : password);
+            VERIFY_TIMER.recordSince(start);
+        }
+        if (event.shouldCommit()) {
+            event.username = username;
+            event.success = success;
+            event.cached = cached;
+            event.commit();
+        }
+        return success;
+    }
+
+    // A cached session is answered on the calling thread; it costs one HMAC
+    // and shouldn't queue behind hashes on the pool
+    @Override
+    public CompletableFuture<Boolean> authenticateAsync(String username, String password) {
+        User user = users.getUser(username);
+        if (user != null && password != null && isCached(username, user.credential(), mac(username, password))) {
+            return CompletableFuture.completedFuture(authenticate(username, password));
+        }
+        return submit(() -> authenticate(username, password));
+    }
+
+    @Override
+    public CompletableFuture<String> hash(String password) {
+        return submit(() -> hashNow(password));
+    }
+
+    @Override
+    public CompletableFuture<String> hashInBackground(String password) {
+        return CompletableFuture.supplyAsync(() -> hashNow(password), background);
+    }
+
+    private static String hashNow(String password) {
+        long start = System.nanoTime();
+        String credential = Cost.HASHER.hash(password);
+        HASH_TIMER.recordSince(start);
+        return credential;
+    }
+
+    @Override
+    public void invalidate(String username) {
+        sessions.remove(username);
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, pool);
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            return CompletableFuture.failedFuture(
+                new IllegalStateException("Too many logins in progress, please try again"));
+        }
+    }
+
+    // Best effort: if the pool is busy the account is rehashed on a later login
+    private void rehash(String username, String credential, String password) {
+        if (!rehashing.add(username)) {
+            return;
+        }
+        try {
+            pool.execute(() -> {
+                try {
+                    long start = System.nanoTime();
+                    String replacement = Cost.HASHER.hash(password);
+                    HASH_TIMER.recordSince(start);
+                    if (users.updateCredential(username, credential, replacement)) {
+                        REHASHES.increment();
+                        sessions.computeIfPresent(username, (name, session) -> session.credential.equals(credential)
+                            ? new Session(replacement, session.mac, session.expiresAt) : session);
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("Error rehashing password for " + username + ": " + e.getMessage());
+                } finally {
+                    rehashing.remove(username);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rehashing.remove(username);
+        }
+    }
+
+    private boolean isCached(String username, String credential, byte[] mac) {
+        Session session = sessions.get(username);
+        return session != null && session.credential.equals(credential)
+            && session.expiresAt - System.nanoTime() > 0 && MessageDigest.isEqual(session.mac, mac);
+    }
+
+    private void remember(String username, String credential, byte[] mac) {
+        long now = System.nanoTime();
+        if (sessions.size() >= MAX_SESSIONS) {
+            sessions.values().removeIf(session -> session.expiresAt - now <= 0);
+        }
+        if (sessions.size() < MAX_SESSIONS) {
+            sessions.put(username, new Session(credential, mac, now + SESSION_TTL_NANOS));
+        }
+    }
+
+    private byte[] mac(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(sessionKey, "HmacSHA256"));
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+}
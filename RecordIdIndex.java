@@ -0,0 +1,155 @@
+// Record id -> store slot. Ids are handed out in sequence, but a sharded
+// directory hands each shard its own block of them, so the index is paged:
+// PAGE_SIZE consecutive ids share an int[] page, and pages are found by
+// page number in an open-addressing table of primitive longs. Lookups stay
+// O(1) without boxing, at about one int per id in a touched page, and any
+// positive long id fits.
+//
+// Bound to one store. put and remove are called by its single writer; get
+// may run concurrently from any thread. Slots are never reused within a
+// store, so a stale entry resolves to the right record or to a tombstone.
+// Compaction builds a new index for the new store.
+public class RecordIdIndex {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final RecordStore store;
+    // Replaced, never resized in place, when it fills up
+    private volatile Directory pages;
+
+    public RecordIdIndex(RecordStore store) {
+        this(store, new Directory(16));
+    }
+
+    private RecordIdIndex(RecordStore store, Directory pages) {
+        this.store = store;
+        this.pages = pages;
+    }
+
+    public void put(long id, int slot) {
+        if (id <= 0) {
+            throw new IllegalArgumentException("Record id out of range: " + id);
+        }
+        long number = id >>> PAGE_BITS;
+        int[] page = pages.find(number);
+        if (page == null) {
+            page = new int[PAGE_SIZE];
+            if (!pages.add(number, page)) {
+                Directory grown = pages.grown();
+                grown.add(number, page);
+                pages = grown;
+            }
+        }
+        page[(int) id & (PAGE_SIZE - 1)] = slot + 1;
+    }
+
+    // Returns -1 if no live record has the id. Ids the store can find
+    // itself are not put here.
+    public int slotOf(long id) {
+        if (id > 0) {
+            int[] page = pages.find(id >>> PAGE_BITS);
+            if (page != null && page[(int) id & (PAGE_SIZE - 1)] != 0) {
+                return page[(int) id & (PAGE_SIZE - 1)] - 1;
+            }
+        }
+        return store.slotOfId(id);
+    }
+
+    // The live record with the id, or null; safe to call from readers
+    public FinancialRecord get(long id) {
+        int slot = slotOf(id);
+        if (slot < 0 || slot >= store.slotCount()) {
+            return null;
+        }
+        return store.get(slot);
+    }
+
+    public void remove(long id) {
+        int[] page = id > 0 ? pages.find(id >>> PAGE_BITS) : null;
+        if (page != null) {
+            page[(int) id & (PAGE_SIZE - 1)] = 0;
+        }
+    }
+
+    // Index over a compacted copy of the store; remap[oldSlot] is the new
+    // slot, or -1 if the record was dropped. Pages left empty are dropped.
+    public RecordIdIndex remapped(RecordStore compacted, int[] remap) {
+        Directory current = pages;
+        Directory next = new Directory(current.numbers.length);
+        for (int i = 0; i < current.numbers.length; i++) {
+            int[] page = current.pages[i];
+            if (current.numbers[i] == 0 || page == null) {
+                continue;
+            }
+            int[] moved = new int[PAGE_SIZE];
+            boolean live = false;
+            for (int j = 0; j < PAGE_SIZE; j++) {
+                if (page[j] != 0) {
+                    moved[j] = remap[page[j] - 1] + 1;
+                    live |= moved[j] != 0;
+                }
+            }
+            if (live) {
+                next.add(current.numbers[i] - 1, moved);
+            }
+        }
+        return new RecordIdIndex(compacted, next);
+    }
+
+    // Page number + 1 -> page, linear probing, at most half full. A reader
+    // may see a number before its page and then treats the page as absent.
+    private static final class Directory {
+        final long[] numbers;
+        final int[][] pages;
+        int size;
+
+        Directory(int capacity) {
+            numbers = new long[capacity];
+            pages = new int[capacity][];
+        }
+
+        int[] find(long number) {
+            int mask = numbers.length - 1;
+            for (int i = hash(number) & mask; ; i = (i + 1) & mask) {
+                long key = numbers[i];
+                if (key == 0) {
+                    return null;
+                }
+                if (key == number + 1) {
+                    return pages[i];
+                }
+            }
+        }
+
+        // False if the directory is too full to take another page
+        boolean add(long number, int[] page) {
+            if ((size + 1) * 2 > numbers.length) {
+                return false;
+            }
+            int mask = numbers.length - 1;
+            int i = hash(number) & mask;
+            while (numbers[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            pages[i] = page;
+            numbers[i] = number + 1;
+            size++;
+            return true;
+        }
+
+        Directory grown() {
+            Directory grown = new Directory(numbers.length * 2);
+            for (int i = 0; i < numbers.length; i++) {
+                if (numbers[i] != 0) {
+                    grown.add(numbers[i] - 1, pages[i]);
+                }
+            }
+            return grown;
+        }
+
+        private static int hash(long number) {
+            long mixed = number * 0x9E3779B97F4A7C15L;
+            return (int) (mixed ^ (mixed >>> 32));
+        }
+    }
+}
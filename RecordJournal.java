@@ -0,0 +1,649 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+// Append-only log of record mutations sitting next to the snapshot file.
+// Every add/delete becomes one checksummed frame; frames are queued and a
+// single background writer appends whatever has accumulated to the current
+// segment (<snapshot>.<generation>.wal) and fsyncs it once per batch. Once a
+// segment holds COMPACT_THRESHOLD entries the live list is written out as a
+// new snapshot and the older segments are dropped.
+public class RecordJournal implements RecordLog {
+    // Frames written before records had ids; still replayed
+    private static final byte OP_ADD = 1;
+    private static final byte OP_DELETE = 2;
+    // Same, with the record id after the op; still replayed
+    private static final byte OP_ADD_ID = 3;
+    private static final byte OP_DELETE_ID = 4;
+    // Strings as an int byte length (-1 for null) and UTF-8, so fields may
+    // be null or longer than writeUTF's 64 KB; always carries the id
+    private static final byte OP_ADD_UTF8 = 5;
+    private static final byte OP_DELETE_UTF8 = 6;
+    private static final int COMPACT_THRESHOLD = 10_000;
+    private static final int MAX_FRAME_SIZE = 1 << 20;
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final long IDLE_SECONDS = 30;
+    private static final Metrics.Timer FLUSH_TIMER = Metrics.timer("journal.flush");
+    private static final Metrics.Counter FLUSHED_BYTES = Metrics.counter("journal.bytesWritten");
+    private static final Metrics.Timer SNAPSHOT_WRITE_TIMER = Metrics.timer("snapshot.write");
+    private static final Metrics.Timer SNAPSHOT_READ_TIMER = Metrics.timer("snapshot.read");
+    // Queued in place of a frame where compact() was called
+    private static final ByteBuffer ROTATE = ByteBuffer.allocate(0);
+
+    // One journal per snapshot file, shared by every FinanceManager in the JVM
+    private static final Map<String, RecordJournal> OPEN_JOURNALS = new HashMap<>();
+
+    // Receives the recovered state: first the snapshot's store, then every
+    // journaled mutation after it, in order. Records from old frames have
+    // id 0.
+    public interface Replay {
+        void loaded(RecordStore store);
+
+        void add(FinancialRecord record);
+
+        void delete(FinancialRecord record);
+    }
+
+    private final String key;
+    private final Path snapshotFile;
+    private final SnapshotFormat format;
+    private final WriteBehind writeBehind;
+    private final ExecutorService compactor;
+    // Held by the writer while it touches the segment, and while the snapshot
+    // is swapped and old segments are deleted, so recover() never sees a
+    // half-written batch or a half-finished compaction
+    private final Object fileLock = new Object();
+
+    private final List<ByteBuffer> pendingFrames = new ArrayList<>();
+    private final Deque<List<FinancialRecord>> pendingSnapshots = new ArrayDeque<>();
+    private final Deque<CompletableFuture<Void>> pendingCompactions = new ArrayDeque<>();
+    private FileChannel segment;
+    private long generation;
+    private int segmentEntries;
+    private boolean compacting;
+
+    // Totals over the open journals, so every shard counts and a closed
+    // journal is no longer reachable from here
+    static {
+        Metrics.gauge("snapshot.bytes", () -> {
+            long total = 0;
+            for (RecordJournal journal : openJournals()) {
+                total += fileSize(journal.snapshotFile);
+            }
+            return total;
+        });
+        Metrics.gauge("journal.bytes", () -> {
+            long total = 0;
+            for (RecordJournal journal : openJournals()) {
+                for (long segmentGeneration : listSegments(journal.snapshotFile)) {
+                    total += fileSize(journal.segmentPath(segmentGeneration));
+                }
+            }
+            return total;
+        });
+    }
+
+    private static synchronized List<RecordJournal> openJournals() {
+        return new ArrayList<>(OPEN_JOURNALS.values());
+    }
+
+    public static synchronized RecordJournal forFile(String snapshotFile, SnapshotFormat format) {
+        return OPEN_JOURNALS.computeIfAbsent(snapshotFile, file -> new RecordJournal(file, format));
+    }
+
+    private RecordJournal(String snapshotFile, SnapshotFormat format) {
+        this.key = snapshotFile;
+        this.snapshotFile = Paths.get(snapshotFile).toAbsolutePath();
+        this.format = format;
+        this.writeBehind = new WriteBehind("journal", this::writePending);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, IDLE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "journal-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        // A sharded directory has a journal per shard; don't keep a thread each
+        executor.allowCoreThreadTimeOut(true);
+        this.compactor = executor;
+    }
+
+    // Loads the snapshot, replays every segment written after it and reopens
+    // the newest segment for appending.
+    @Override
+    public void recover(Replay replay) {
+        try {
+            writeBehind.flushAndWait();
+        } catch (IOException e) {
+            System.err.println("Error flushing journal: " + e.getMessage());
+        }
+        synchronized (fileLock) {
+            closeSegment();
+            long snapshotGeneration = readSnapshot(snapshotFile, format, replay);
+            long current = snapshotGeneration;
+            long validLength = 0;
+            int entries = 0;
+
+            for (long segmentGeneration : listSegments(snapshotFile)) {
+                if (segmentGeneration < snapshotGeneration) {
+                    if (segmentGeneration < snapshotGeneration - SnapshotFile.KEEP) {
+                        // Left behind by a compaction that finished the snapshot but not the cleanup
+                        deleteQuietly(segmentPath(segmentGeneration));
+                    }
+                    continue;
+                }
+                SegmentReplay replayed = replay(segmentPath(segmentGeneration), replay);
+                validLength = replayed.validLength;
+                entries = replayed.entries;
+                current = segmentGeneration;
+            }
+
+            try {
+                openSegment(current);
+                if (segment.size() > validLength) {
+                    // Drop a torn frame from a crash mid-append
+                    segment.truncate(validLength);
+                }
+            } catch (IOException e) {
+                System.err.println("Error opening journal: " + e.getMessage());
+            }
+            synchronized (this) {
+                segmentEntries = entries;
+            }
+        }
+    }
+
+    // The live records of a snapshot and its segments, read without opening
+    // the journal: nothing on disk is created, truncated or deleted, so
+    // one-shot tools can read a data file an app may also have open.
+    // Records logged without an id get the next free one, as on a load.
+    public static List<FinancialRecord> readRecords(String snapshotFile, SnapshotFormat format) {
+        Path snapshot = Paths.get(snapshotFile).toAbsolutePath();
+        Map<Long, FinancialRecord> live = new LinkedHashMap<>();
+        long[] nextId = {1};
+        Replay replay = new Replay() {
+            @Override
+            public void loaded(RecordStore store) {
+                for (FinancialRecord record : store.toList()) {
+                    add(record);
+                }
+            }
+
+            @Override
+            public void add(FinancialRecord record) {
+                if (record.getId() == 0) {
+                    record.setId(nextId[0]);
+                }
+                nextId[0] = Math.max(nextId[0], record.getId() + 1);
+                live.put(record.getId(), record);
+            }
+
+            @Override
+            public void delete(FinancialRecord record) {
+                if (record.getId() != 0) {
+                    live.remove(record.getId());
+                    return;
+                }
+                for (FinancialRecord candidate : live.values()) {
+                    if (record.sameAs(candidate)) {
+                        live.remove(candidate.getId());
+                        return;
+                    }
+                }
+            }
+        };
+        long snapshotGeneration = readSnapshot(snapshot, format, replay);
+        for (long segmentGeneration : listSegments(snapshot)) {
+            if (segmentGeneration >= snapshotGeneration) {
+                replay(segmentPath(snapshot, segmentGeneration), replay);
+            }
+        }
+        return new ArrayList<>(live.values());
+    }
+
+    @Override
+    public CompletableFuture<Void> logAdd(FinancialRecord record) {
+        return append(List.of(addFrame(record)));
+    }
+
+    // One flush request for the whole batch, so it lands in one write + fsync
+    @Override
+    public CompletableFuture<Void> logAddAll(List<FinancialRecord> records) {
+        return append(addFrames(records));
+    }
+
+    @Override
+    public CompletableFuture<Void> logDelete(FinancialRecord record) {
+        return append(List.of(deleteFrame(record)));
+    }
+
+    // Encoding throws for a record that can't be journaled, before anything
+    // is queued, so callers encode first and then append
+    public static ByteBuffer addFrame(FinancialRecord record) {
+        return encodeFrame(OP_ADD_UTF8, record);
+    }
+
+    public static List<ByteBuffer> addFrames(List<FinancialRecord> records) {
+        List<ByteBuffer> frames = new ArrayList<>(records.size());
+        for (FinancialRecord record : records) {
+            frames.add(addFrame(record));
+        }
+        return frames;
+    }
+
+    public static ByteBuffer deleteFrame(FinancialRecord record) {
+        return encodeFrame(OP_DELETE_UTF8, record);
+    }
+
+    // Queues frames from the encoders above as one flush request. A frame
+    // goes to one journal only; pass a duplicate() to another.
+    public synchronized CompletableFuture<Void> append(List<ByteBuffer> frames) {
+        pendingFrames.addAll(frames);
+        segmentEntries += frames.size();
+        return writeBehind.requestFlush();
+    }
+
+    public synchronized boolean needsCompaction() {
+        return !compacting && segmentEntries >= COMPACT_THRESHOLD;
+    }
+
+    @Override
+    public void compactIfNeeded(Function<Predicate<String>, List<FinancialRecord>> live) {
+        if (needsCompaction()) {
+            compact(live.apply(null));
+        }
+    }
+
+    // Queues a segment rotation behind the frames logged so far; the writer
+    // then hands the list to the compactor thread to become the new
+    // snapshot. The list must be a private copy of the records as of the last
+    // logged mutation. Completes once the snapshot has replaced the old one,
+    // or straight away if a compaction is already running.
+    public synchronized CompletableFuture<Void> compact(List<FinancialRecord> records) {
+        if (compacting) {
+            return CompletableFuture.completedFuture(null);
+        }
+        compacting = true;
+        segmentEntries = 0;
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        pendingFrames.add(ROTATE);
+        pendingSnapshots.add(records);
+        pendingCompactions.add(done);
+        writeBehind.requestFlush();
+        return done;
+    }
+
+    // Writes out what is queued and closes the segment. The journal is
+    // forgotten, so forFile() opens the file afresh.
+    public void close() {
+        synchronized (RecordJournal.class) {
+            OPEN_JOURNALS.remove(key, this);
+        }
+        try {
+            writeBehind.close();
+        } catch (IOException e) {
+            System.err.println("Error flushing journal: " + e.getMessage());
+        }
+        // A snapshot already handed to the compactor is still written
+        compactor.shutdown();
+        synchronized (fileLock) {
+            closeSegment();
+        }
+    }
+
+    // Runs on the writer thread: one gathering write and one fsync for
+    // everything queued since the last batch
+    private void writePending() throws IOException {
+        List<ByteBuffer> frames;
+        synchronized (this) {
+            frames = new ArrayList<>(pendingFrames);
+            pendingFrames.clear();
+        }
+
+        if (frames.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        FinanceEvents.JournalFlush event = new FinanceEvents.JournalFlush();
+        event.begin();
+        long bytes = 0;
+        for (ByteBuffer frame : frames) {
+            bytes += frame.remaining();
+        }
+        synchronized (fileLock) {
+            if (segment == null) {
+                throw new IOException("journal is not open");
+            }
+            int batchStart = 0;
+            for (int i = 0; i < frames.size(); i++) {
+                if (frames.get(i) == ROTATE) {
+                    write(frames.subList(batchStart, i));
+                    rotate();
+                    batchStart = i + 1;
+                }
+            }
+            write(frames.subList(batchStart, frames.size()));
+            segment.force(false);
+        }
+        FLUSH_TIMER.recordSince(start);
+        if (event.shouldCommit()) {
+            event.frames = frames.size();
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    private void write(List<ByteBuffer> frames) throws IOException {
+        ByteBuffer[] buffers = frames.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        FLUSHED_BYTES.add(remaining);
+        while (remaining > 0) {
+            remaining -= segment.write(buffers);
+        }
+    }
+
+    private void rotate() throws IOException {
+        List<FinancialRecord> records;
+        CompletableFuture<Void> done;
+        synchronized (this) {
+            records = pendingSnapshots.poll();
+            done = pendingCompactions.poll();
+        }
+        long target = generation + 1;
+        try {
+            segment.force(false);
+            closeSegment();
+            openSegment(target);
+        } catch (IOException e) {
+            synchronized (this) {
+                compacting = false;
+            }
+            done.completeExceptionally(e);
+            throw e;
+        }
+        compactor.execute(() -> {
+            try {
+                writeSnapshot(records, target);
+                done.complete(null);
+            } catch (IOException e) {
+                System.err.println("Error writing snapshot: " + e.getMessage());
+                done.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        });
+    }
+
+    private void openSegment(long segmentGeneration) throws IOException {
+        segment = FileChannel.open(segmentPath(segmentGeneration),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        generation = segmentGeneration;
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            System.err.println("Error closing journal: " + e.getMessage());
+        }
+        segment = null;
+    }
+
+    private void writeSnapshot(List<FinancialRecord> records, long snapshotGeneration) throws IOException {
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        long start = System.nanoTime();
+        FinanceEvents.FileIo event = new FinanceEvents.FileIo();
+        event.begin();
+        format.write(temp, records, snapshotGeneration);
+        SNAPSHOT_WRITE_TIMER.recordSince(start);
+        if (event.shouldCommit()) {
+            event.operation = "write";
+            event.file = snapshotFile.toString();
+            event.entries = records.size();
+            event.bytes = fileSize(temp);
+            event.commit();
+        }
+
+        synchronized (fileLock) {
+            SnapshotFile.install(temp, snapshotFile);
+            // Kept for as long as a previous snapshot that needs them is
+            for (long segmentGeneration : listSegments(snapshotFile)) {
+                if (segmentGeneration < snapshotGeneration - SnapshotFile.KEEP) {
+                    deleteQuietly(segmentPath(segmentGeneration));
+                }
+            }
+        }
+    }
+
+    // Falls back to the newest previous snapshot that reads back intact;
+    // their segments are kept. If there are snapshots but none of them can
+    // be read, starting empty would overwrite them, so recovery fails.
+    private static long readSnapshot(Path snapshotFile, SnapshotFormat format, Replay replay) {
+        List<Path> candidates = SnapshotFile.generations(snapshotFile);
+        for (Path candidate : candidates) {
+            try {
+                long start = System.nanoTime();
+                FinanceEvents.FileIo event = new FinanceEvents.FileIo();
+                event.begin();
+                SnapshotFormat.Snapshot snapshot = format.read(candidate);
+                SNAPSHOT_READ_TIMER.recordSince(start);
+                if (event.shouldCommit()) {
+                    event.operation = "read";
+                    event.file = candidate.toString();
+                    event.entries = snapshot.store.size();
+                    event.bytes = fileSize(candidate);
+                    event.commit();
+                }
+                replay.loaded(snapshot.store);
+                return snapshot.generation;
+            } catch (IOException e) {
+                System.err.println("Error loading records from " + candidate + ": " + e.getMessage());
+            }
+        }
+        if (!candidates.isEmpty()) {
+            throw new IllegalStateException("No readable snapshot of " + snapshotFile);
+        }
+        replay.loaded(format.emptyStore());
+        return 0;
+    }
+
+    // Feeds the segment to the replay; stops at the first torn or corrupt frame
+    private static SegmentReplay replay(Path file, Replay replay) {
+        SegmentReplay replayed = new SegmentReplay();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int length;
+                byte[] payload;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    if (length <= 0 || length > MAX_FRAME_SIZE) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (checksum != checksum(payload)) {
+                    break;
+                }
+                apply(payload, replay);
+                replayed.validLength += Integer.BYTES + length + Integer.BYTES;
+                replayed.entries++;
+            }
+        } catch (IOException e) {
+            System.err.println("Error replaying journal " + file.getFileName() + ": " + e.getMessage());
+        }
+        return replayed;
+    }
+
+    private static class SegmentReplay {
+        // Length of the segment's valid prefix
+        private long validLength;
+        private int entries;
+    }
+
+    private static void apply(byte[] payload, Replay replay) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        boolean utf8 = op == OP_ADD_UTF8 || op == OP_DELETE_UTF8;
+        long id = utf8 || op == OP_ADD_ID || op == OP_DELETE_ID ? in.readLong() : 0;
+        LocalDateTime dateTime = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+        double amount = in.readDouble();
+        String type = readString(in, utf8);
+        String description = readString(in, utf8);
+        String category = readString(in, utf8);
+        String username = readString(in, utf8);
+        FinancialRecord record = new FinancialRecord(amount, type, description, category, username, dateTime);
+        record.setId(id);
+
+        if (op == OP_ADD || op == OP_ADD_ID || op == OP_ADD_UTF8) {
+            replay.add(record);
+        } else if (op == OP_DELETE || op == OP_DELETE_ID || op == OP_DELETE_UTF8) {
+            replay.delete(record);
+        }
+    }
+
+    private static String readString(DataInputStream in, boolean utf8) throws IOException {
+        if (!utf8) {
+            return in.readUTF();
+        }
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static ByteBuffer encodeFrame(byte op, FinancialRecord record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(op);
+            out.writeLong(record.getId());
+            out.writeLong(record.getDateTime().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(record.getDateTime().getNano());
+            out.writeDouble(record.getAmount());
+            writeString(out, record.getType());
+            writeString(out, record.getDescription());
+            writeString(out, record.getCategory());
+            writeString(out, record.getUsername());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] payload = bytes.toByteArray();
+        // Replay stops at a longer frame as if it were torn
+        if (payload.length > MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Record " + record.getId() + " is too large to journal ("
+                + payload.length + " bytes)");
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + payload.length + Integer.BYTES);
+        frame.putInt(payload.length);
+        frame.put(payload);
+        frame.putInt(checksum(payload));
+        frame.flip();
+        return frame;
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private Path segmentPath(long segmentGeneration) {
+        return segmentPath(snapshotFile, segmentGeneration);
+    }
+
+    private static Path segmentPath(Path snapshotFile, long segmentGeneration) {
+        return snapshotFile.resolveSibling(snapshotFile.getFileName() + "." + segmentGeneration + SEGMENT_SUFFIX);
+    }
+
+    private static List<Long> listSegments(Path snapshotFile) {
+        List<Long> generations = new ArrayList<>();
+        String prefix = snapshotFile.getFileName() + ".";
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(snapshotFile.getParent(),
+                prefix + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : dir) {
+                String name = path.getFileName().toString();
+                String number = name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length());
+                try {
+                    generations.add(Long.parseLong(number));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error listing journal segments: " + e.getMessage());
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private static long fileSize(Path path) {
+        try {
+            return Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Error deleting " + path.getFileName() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Where FinanceManager persists its mutations: one journal next to one
+// snapshot file (RecordJournal), or one journal per shard of a data
+// directory (ShardedRecordLog). Mutations are logged under the manager's
+// lock, before they are applied in memory: the log methods throw without
+// logging anything if a record can't be journaled, and nothing changes.
+public interface RecordLog {
+    // Replays what has to be in memory up front: first the store to fill,
+    // then every record and mutation. Logs that load lazily keep the replay
+    // for load() and loadAll().
+    void recover(RecordJournal.Replay replay);
+
+    CompletableFuture<Void> logAdd(FinancialRecord record);
+
+    CompletableFuture<Void> logAddAll(List<FinancialRecord> records);
+
+    CompletableFuture<Void> logDelete(FinancialRecord record);
+
+    // Called under the manager's lock after mutations. live returns a
+    // private copy of the live records of the users a filter accepts, or of
+    // every record for a null filter.
+    void compactIfNeeded(Function<Predicate<String>, List<FinancialRecord>> live);
+
+    // False until the user's records have been replayed
+    default boolean isLoaded(String username) {
+        return true;
+    }
+
+    // Replays the user's records, if that hasn't happened yet; called under
+    // the manager's lock
+    default void load(String username) {
+    }
+
+    default void loadAll() {
+    }
+
+    // Every stored record, loaded or not, has an id below this
+    default long idFloor() {
+        return 1;
+    }
+
+    // Makes ids in [from, returned bound) safe to hand out; the bound is
+    // durable before this returns
+    default long reserveIds(long from) {
+        return Long.MAX_VALUE;
+    }
+
+    // Rewrites the records into `buckets` shards while reads and writes go
+    // on; completes once the new layout is in effect
+    default CompletableFuture<Void> rebalance(int buckets, Function<Predicate<String>, List<FinancialRecord>> live) {
+        return CompletableFuture.failedFuture(
+            new UnsupportedOperationException("Only sharded data directories can be rebalanced"));
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.List;
+
+// Storage engine behind FinanceManager. Slots are stable for the lifetime of
+// the store: removing a record leaves a tombstone, so slot numbers held by
+// indexes stay valid. Tombstones disappear when the store is compacted into
+// a new one or rebuilt on load.
+//
+// add and remove are called by one writer at a time. The read methods may
+// run concurrently with it from any thread and must not block: a slot below
+// a slotCount() the reader has seen is fully readable, and a concurrent
+// remove shows up either as the record or as null.
+public interface RecordStore {
+    int add(FinancialRecord record);
+
+    // Returns null for a removed slot and for one at or past slotCount(),
+    // so a reader holding a slot from an older view never throws
+    FinancialRecord get(int slot);
+
+    // Owner of the slot without building the whole record; null if removed
+    default String usernameAt(int slot) {
+        FinancialRecord record = get(slot);
+        return record == null ? null : record.getUsername();
+    }
+
+    // Id of the record in the slot, 0 if it has none yet
+    default long idAt(int slot) {
+        FinancialRecord record = get(slot);
+        return record == null ? 0 : record.getId();
+    }
+
+    // Slot of the live record with the id for stores that can find it
+    // themselves, so callers need not index every id; -1 otherwise
+    default int slotOfId(long id) {
+        return -1;
+    }
+
+    void remove(int slot);
+
+    // Number of live records
+    int size();
+
+    // Number of slots handed out, including tombstones
+    int slotCount();
+
+    List<FinancialRecord> toList();
+
+    // New store of the same kind holding only the live records; fills
+    // remap[oldSlot] with the new slot, or -1 for a tombstone. remap must
+    // have slotCount() entries. This store is left unchanged.
+    RecordStore compact(int[] remap);
+}
@@ -0,0 +1,52 @@
+import java.lang.ref.Reference;
+import java.time.LocalDateTime;
+
+// Compares the retained heap of the heap (ArrayList) and columnar record
+// stores for the same synthetic data set.
+// Usage: java RecordStoreFootprint [records] [users]
+public class RecordStoreFootprint {
+    private static final String[] CATEGORIES = {"Salary", "Food", "Transport", "Entertainment", "Other"};
+
+    public static void main(String[] args) {
+        int recordCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int userCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        long listBytes = measure(new ListRecordStore(), recordCount, userCount);
+        long columnarBytes = measure(new ColumnarRecordStore(), recordCount, userCount);
+
+        System.out.printf("records=%d users=%d%n", recordCount, userCount);
+        System.out.printf("heap store:     %,d bytes (%.1f bytes/record)%n", listBytes, (double) listBytes / recordCount);
+        System.out.printf("columnar store: %,d bytes (%.1f bytes/record)%n", columnarBytes, (double) columnarBytes / recordCount);
+        System.out.printf("ratio: %.1fx%n", (double) listBytes / columnarBytes);
+    }
+
+    private static long measure(RecordStore store, int recordCount, int userCount) {
+        long before = usedHeap();
+        LocalDateTime start = LocalDateTime.now().minusYears(5);
+        for (int i = 0; i < recordCount; i++) {
+            String type = i % 4 == 0 ? "INCOME" : "EXPENSE";
+            // Rebuilt per record so the heap store holds its own copies, as it
+            // does after deserialization
+            String description = (i % 3 == 0) ? "Transaction " + i : new String("Groceries " + (i % 200));
+            store.add(new FinancialRecord(i % 1000 + 0.99, new String(type), description,
+                new String(CATEGORIES[i % CATEGORIES.length]), "user" + (i % userCount),
+                start.plusSeconds(i * 37L)));
+        }
+        long used = usedHeap() - before;
+        Reference.reachabilityFence(store);
+        return used;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
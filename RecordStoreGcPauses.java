@@ -0,0 +1,152 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+// Compares garbage collection pauses with the same synthetic data set held
+// by the heap, columnar and off-heap record stores. Each store runs in its
+// own JVM (started with this JVM's options, so -Xmx and -XX:+UseXxxGC carry
+// over): the records are loaded, then the process churns through short and
+// medium-lived garbage, as a busy session does, while every collection's
+// pause is recorded. A final System.gc() shows what a full collection costs
+// with the store live.
+//
+// Usage: java RecordStoreGcPauses [records] [seconds]
+public class RecordStoreGcPauses {
+    private static final String[] STORES = {"heap", "columnar", "offheap"};
+    private static final String[] CATEGORIES = {"Salary", "Food", "Transport", "Entertainment", "Other"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--child")) {
+            runChild(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+        int recordCount = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.printf("records=%d churn=%ds jvm options=%s%n", recordCount, seconds,
+            ManagementFactory.getRuntimeMXBean().getInputArguments());
+        System.out.printf("%-9s %8s %10s %8s %8s %8s %10s %10s%n",
+            "store", "pauses", "total ms", "p50 ms", "p99 ms", "max ms", "full gc ms", "heap MB");
+        for (String store : STORES) {
+            System.out.println(runInChildJvm(store, recordCount, seconds));
+        }
+    }
+
+    private static String runInChildJvm(String store, int recordCount, int seconds) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RecordStoreGcPauses.class.getName());
+        command.addAll(Arrays.asList("--child", store, String.valueOf(recordCount), String.valueOf(seconds)));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(output.length() == 0 ? "" : "\n").append(line);
+            }
+        }
+        if (process.waitFor() != 0) {
+            return String.format("%-9s failed: %s", store, output);
+        }
+        return output.toString();
+    }
+
+    private static void runChild(String storeName, int recordCount, int seconds) {
+        RecordStore store = createStore(storeName);
+        load(store, recordCount);
+        System.gc();
+
+        List<Long> pauses = new ArrayList<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    synchronized (pauses) {
+                        pauses.add(info.getGcInfo().getDuration());
+                    }
+                }
+            }, null, null);
+        }
+
+        churn(store, seconds);
+        long[] sorted;
+        synchronized (pauses) {
+            sorted = pauses.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        long fullStart = System.nanoTime();
+        System.gc();
+        long fullMillis = (System.nanoTime() - fullStart) / 1_000_000;
+        Runtime runtime = Runtime.getRuntime();
+        long heapMb = (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+        Reference.reachabilityFence(store);
+
+        long total = Arrays.stream(sorted).sum();
+        System.out.printf("%-9s %8d %10d %8d %8d %8d %10d %10d%n", storeName, sorted.length, total,
+            percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0), fullMillis, heapMb);
+    }
+
+    private static RecordStore createStore(String name) {
+        switch (name) {
+            case "columnar": return new ColumnarRecordStore();
+            case "offheap": return new OffHeapRecordStore();
+            default: return new ListRecordStore();
+        }
+    }
+
+    private static void load(RecordStore store, int recordCount) {
+        LocalDateTime start = LocalDateTime.now().minusYears(5);
+        for (int i = 0; i < recordCount; i++) {
+            String type = i % 4 == 0 ? "INCOME" : "EXPENSE";
+            String description = (i % 3 == 0) ? "Transaction " + i : new String("Groceries " + (i % 200));
+            store.add(new FinancialRecord(i % 1000 + 0.99, new String(type), description,
+                new String(CATEGORIES[i % CATEGORIES.length]), "user" + (i % 1000),
+                start.plusSeconds(i * 37L)));
+        }
+    }
+
+    // Reads random records and formats a line for each (short-lived
+    // garbage), keeping a rolling window of lines alive long enough to be
+    // promoted, so old-generation collections happen too
+    private static void churn(RecordStore store, int seconds) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String[] retained = new String[200_000];
+        long sink = 0;
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            for (int j = 0; j < 1000; j++) {
+                FinancialRecord record = store.get(random.nextInt(store.slotCount()));
+                String line = record.getCategory() + ": " + record.getDescription() + " " + record.getAmount();
+                sink += line.length();
+                if ((j & 7) == 0) {
+                    retained[random.nextInt(retained.length)] = line;
+                }
+            }
+        }
+        if (sink == 42) {
+            System.out.println(retained.length);
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+    }
+}
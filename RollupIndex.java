@@ -0,0 +1,190 @@
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Pre-aggregated amounts per (username, category, type) in day, month and
+// year buckets, updated on every add/delete. Range queries add up whole
+// years, months and days covering the range, so their cost depends on the
+// number of buckets touched, not on how many records fall inside.
+//
+// add and remove are called by one writer at a time; queries can run
+// alongside it without locking and see each bucket either before or after
+// an update.
+public class RollupIndex {
+    public enum Granularity { DAY, MONTH, YEAR }
+
+    // Used as the category of the series that sums all categories
+    private static final String ALL_CATEGORIES = "\u0000all";
+
+    private final Map<String, Map<String, Series>> seriesByUser = new ConcurrentHashMap<>();
+
+    public void add(FinancialRecord record) {
+        update(record, 1);
+    }
+
+    public void remove(FinancialRecord record) {
+        update(record, -1);
+    }
+
+    // Sum of amounts of the given type with dates in [from, to);
+    // a null category means all categories, null bounds are open
+    public double total(String username, String type, String category, LocalDate from, LocalDate to) {
+        Series series = find(username, type, category);
+        if (series == null) {
+            return 0;
+        }
+        if (from == null || to == null) {
+            Map.Entry<Long, Bucket> first = series.buckets(Granularity.YEAR).firstEntry();
+            Map.Entry<Long, Bucket> last = series.buckets(Granularity.YEAR).lastEntry();
+            if (first == null || last == null) {
+                return 0;
+            }
+            from = from != null ? from : bucketStart(Granularity.YEAR, first.getKey());
+            to = to != null ? to : bucketStart(Granularity.YEAR, last.getKey() + 1);
+        }
+        double total = 0;
+        LocalDate date = from;
+        while (date.isBefore(to)) {
+            if (date.getDayOfYear() == 1 && !date.plusYears(1).isAfter(to)) {
+                total += series.get(Granularity.YEAR, date);
+                date = date.plusYears(1);
+            } else if (date.getDayOfMonth() == 1 && !date.plusMonths(1).isAfter(to)) {
+                total += series.get(Granularity.MONTH, date);
+                date = date.plusMonths(1);
+            } else {
+                total += series.get(Granularity.DAY, date);
+                date = date.plusDays(1);
+            }
+        }
+        return total;
+    }
+
+    // Non-empty buckets whose start date is in [from, to), keyed by that date;
+    // null bounds are open
+    public SortedMap<LocalDate, Double> series(String username, String type, String category,
+                                               Granularity granularity, LocalDate from, LocalDate to) {
+        SortedMap<LocalDate, Double> result = new TreeMap<>();
+        Series series = find(username, type, category);
+        if (series == null) {
+            return result;
+        }
+        ConcurrentNavigableMap<Long, Bucket> buckets = series.buckets(granularity);
+        if (from != null) {
+            buckets = buckets.tailMap(bucketKey(granularity, from));
+        }
+        if (to != null) {
+            buckets = buckets.headMap(bucketKey(granularity, to));
+        }
+        for (Map.Entry<Long, Bucket> entry : buckets.entrySet()) {
+            result.put(bucketStart(granularity, entry.getKey()), entry.getValue().total);
+        }
+        return result;
+    }
+
+    // Totals per category for the given type and range
+    public Map<String, Double> totalsByCategory(String username, String type, LocalDate from, LocalDate to) {
+        Map<String, Double> totals = new LinkedHashMap<>();
+        Map<String, Series> userSeries = seriesByUser.get(username);
+        if (userSeries == null) {
+            return totals;
+        }
+        String prefix = type + '|';
+        for (String key : userSeries.keySet()) {
+            if (key.startsWith(prefix) && !key.endsWith(ALL_CATEGORIES)) {
+                String category = key.substring(prefix.length());
+                totals.put(category, total(username, type, category, from, to));
+            }
+        }
+        return totals;
+    }
+
+    private void update(FinancialRecord record, int sign) {
+        Map<String, Series> userSeries = seriesByUser.computeIfAbsent(record.getUsername(), u -> new ConcurrentHashMap<>());
+        LocalDate date = record.getDateTime().toLocalDate();
+        double amount = sign * record.getAmount();
+        userSeries.computeIfAbsent(key(record.getType(), record.getCategory()), k -> new Series())
+            .add(date, amount, sign);
+        userSeries.computeIfAbsent(key(record.getType(), ALL_CATEGORIES), k -> new Series())
+            .add(date, amount, sign);
+    }
+
+    private Series find(String username, String type, String category) {
+        Map<String, Series> userSeries = seriesByUser.get(username);
+        if (userSeries == null) {
+            return null;
+        }
+        return userSeries.get(key(type, category == null ? ALL_CATEGORIES : category));
+    }
+
+    private static String key(String type, String category) {
+        return type + '|' + category;
+    }
+
+    private static long bucketKey(Granularity granularity, LocalDate date) {
+        switch (granularity) {
+            case DAY:
+                return date.toEpochDay();
+            case MONTH:
+                return date.getYear() * 12L + date.getMonthValue() - 1;
+            default:
+                return date.getYear();
+        }
+    }
+
+    private static LocalDate bucketStart(Granularity granularity, long key) {
+        switch (granularity) {
+            case DAY:
+                return LocalDate.ofEpochDay(key);
+            case MONTH:
+                return LocalDate.of((int) Math.floorDiv(key, 12), Math.floorMod(key, 12) + 1, 1);
+            default:
+                return LocalDate.of((int) key, 1, 1);
+        }
+    }
+
+    private static class Bucket {
+        private volatile double total;
+        private volatile int count;
+    }
+
+    // One (category, type) stream of amounts at all three granularities
+    private static class Series {
+        private final Map<Granularity, ConcurrentNavigableMap<Long, Bucket>> buckets =
+            new EnumMap<>(Granularity.class);
+
+        Series() {
+            for (Granularity granularity : Granularity.values()) {
+                buckets.put(granularity, new ConcurrentSkipListMap<>());
+            }
+        }
+
+        void add(LocalDate date, double amount, int countDelta) {
+            for (Granularity granularity : Granularity.values()) {
+                ConcurrentNavigableMap<Long, Bucket> map = buckets.get(granularity);
+                long key = bucketKey(granularity, date);
+                Bucket bucket = map.computeIfAbsent(key, k -> new Bucket());
+                bucket.total += amount;
+                bucket.count += countDelta;
+                if (bucket.count <= 0) {
+                    // Drop emptied buckets rather than keep rounding residue
+                    map.remove(key);
+                }
+            }
+        }
+
+        double get(Granularity granularity, LocalDate date) {
+            Bucket bucket = buckets.get(granularity).get(bucketKey(granularity, date));
+            return bucket == null ? 0 : bucket.total;
+        }
+
+        ConcurrentNavigableMap<Long, Bucket> buckets(Granularity granularity) {
+            return buckets.get(granularity);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongFunction;
+
+// Inverted index over the words of each record's description and category,
+// per user. Words are lower-cased runs of letters and digits; each maps to
+// the ascending ids of the records containing it. Terms are kept sorted, so
+// a query word matches every term it is a prefix of.
+//
+// add and remove are called by one writer at a time; search runs alongside
+// it without locking. Postings are immutable snapshots the writer replaces,
+// sharing the id array on append like FinanceManager's ledgers.
+public class SearchIndex {
+    private final Map<String, ConcurrentNavigableMap<String, Postings>> termsByUser = new ConcurrentHashMap<>();
+
+    // Users are indexed on first search; until then add/remove skip them
+    public boolean isIndexed(String username) {
+        return termsByUser.containsKey(username);
+    }
+
+    // Indexes all of a user's records at once and only then publishes them
+    public void build(String username, List<FinancialRecord> records) {
+        Map<String, Postings> terms = new HashMap<>();
+        for (FinancialRecord record : records) {
+            for (String term : terms(record)) {
+                terms.put(term, terms.getOrDefault(term, Postings.EMPTY).with(record.getId()));
+            }
+        }
+        termsByUser.put(username, new ConcurrentSkipListMap<>(terms));
+    }
+
+    public void add(FinancialRecord record) {
+        ConcurrentNavigableMap<String, Postings> terms = termsByUser.get(record.getUsername());
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms(record)) {
+            terms.put(term, terms.getOrDefault(term, Postings.EMPTY).with(record.getId()));
+        }
+    }
+
+    public void remove(FinancialRecord record) {
+        ConcurrentNavigableMap<String, Postings> terms = termsByUser.get(record.getUsername());
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms(record)) {
+            Postings postings = terms.get(term);
+            if (postings == null) {
+                continue;
+            }
+            postings = postings.without(record.getId());
+            if (postings.count == 0) {
+                terms.remove(term);
+            } else {
+                terms.put(term, postings);
+            }
+        }
+    }
+
+    // The user's records matching every word of the query (each as a
+    // prefix), newest first, stopping after limit hits. resolve maps an id
+    // to its record, or to null if it was deleted meanwhile.
+    public List<FinancialRecord> search(String username, String query, int limit,
+                                        LongFunction<FinancialRecord> resolve) {
+        ConcurrentNavigableMap<String, Postings> terms = termsByUser.get(username);
+        List<String> words = tokenize(query);
+        List<FinancialRecord> hits = new ArrayList<>();
+        if (terms == null || words.isEmpty() || limit <= 0) {
+            return hits;
+        }
+
+        // Every word expands to the postings of all terms it prefixes
+        List<List<Postings>> matches = new ArrayList<>(words.size());
+        int driver = 0;
+        long driverSize = Long.MAX_VALUE;
+        for (String word : words) {
+            Collection<Postings> lists = terms.subMap(word, true, word + Character.MAX_VALUE, true).values();
+            if (lists.isEmpty()) {
+                return hits;
+            }
+            List<Postings> snapshot = new ArrayList<>(lists);
+            long size = 0;
+            for (Postings postings : snapshot) {
+                size += postings.count;
+            }
+            if (size < driverSize) {
+                driverSize = size;
+                driver = matches.size();
+            }
+            matches.add(snapshot);
+        }
+
+        // Walk the most selective word's ids from the newest down and probe
+        // the other words' postings for each
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+        for (Postings postings : matches.get(driver)) {
+            cursors.add(new Cursor(postings));
+        }
+        List<Probe> probes = new ArrayList<>();
+        for (int i = 0; i < matches.size(); i++) {
+            if (i != driver) {
+                probes.add(new Probe(matches.get(i)));
+            }
+        }
+        long previous = -1;
+        while (!cursors.isEmpty() && hits.size() < limit) {
+            Cursor cursor = cursors.poll();
+            long id = cursor.current();
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+            if (id == previous) {
+                continue;
+            }
+            previous = id;
+            if (matchesAll(probes, id)) {
+                FinancialRecord record = resolve.apply(id);
+                if (record != null) {
+                    hits.add(record);
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static boolean matchesAll(List<Probe> probes, long id) {
+        for (Probe probe : probes) {
+            if (!probe.contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> terms(FinancialRecord record) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(record.getDescription()));
+        terms.addAll(tokenize(record.getCategory()));
+        return terms;
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Ascending record ids of one term
+    private static class Postings {
+        static final Postings EMPTY = new Postings(new long[4], 0);
+
+        private final long[] ids;
+        private final int count;
+
+        private Postings(long[] ids, int count) {
+            this.ids = ids;
+            this.count = count;
+        }
+
+        // Ids are handed out in increasing order, so this is nearly always
+        // an append into spare capacity
+        Postings with(long id) {
+            if (count > 0 && ids[count - 1] >= id) {
+                int index = Arrays.binarySearch(ids, 0, count, id);
+                if (index >= 0) {
+                    return this;
+                }
+                int insert = -index - 1;
+                long[] next = new long[Math.max(4, count * 2)];
+                System.arraycopy(ids, 0, next, 0, insert);
+                next[insert] = id;
+                System.arraycopy(ids, insert, next, insert + 1, count - insert);
+                return new Postings(next, count + 1);
+            }
+            long[] next = ids;
+            if (count == ids.length || this == EMPTY) {
+                next = Arrays.copyOf(ids, Math.max(4, count * 2));
+            }
+            next[count] = id;
+            return new Postings(next, count + 1);
+        }
+
+        Postings without(long id) {
+            int index = Arrays.binarySearch(ids, 0, count, id);
+            if (index < 0) {
+                return this;
+            }
+            long[] next = new long[ids.length];
+            System.arraycopy(ids, 0, next, 0, index);
+            System.arraycopy(ids, index + 1, next, index, count - index - 1);
+            return new Postings(next, count - 1);
+        }
+    }
+
+    // The postings of one query word, asked about ids in descending order;
+    // each lookup only searches below where the previous one ended
+    private static class Probe {
+        private final Postings[] lists;
+        private final int[] ends;
+
+        Probe(List<Postings> lists) {
+            this.lists = lists.toArray(new Postings[0]);
+            this.ends = new int[this.lists.length];
+            for (int i = 0; i < ends.length; i++) {
+                ends[i] = this.lists[i].count;
+            }
+        }
+
+        boolean contains(long id) {
+            for (int i = 0; i < lists.length; i++) {
+                int index = Arrays.binarySearch(lists[i].ids, 0, ends[i], id);
+                if (index >= 0) {
+                    ends[i] = index + 1;
+                    return true;
+                }
+                ends[i] = -index - 1;
+            }
+            return false;
+        }
+    }
+
+    // Walks one postings list from its newest id down; the queue orders
+    // cursors by current id, highest first
+    private static class Cursor implements Comparable<Cursor> {
+        private final Postings postings;
+        private int position;
+
+        Cursor(Postings postings) {
+            this.postings = postings;
+            this.position = postings.count - 1;
+        }
+
+        long current() {
+            return postings.ids[position];
+        }
+
+        boolean advance() {
+            return --position >= 0;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return Long.compare(other.current(), current());
+        }
+    }
+}
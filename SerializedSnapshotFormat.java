@@ -0,0 +1,69 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Supplier;
+
+// The original financial_records.dat layout: a Java-serialized
+// List<FinancialRecord>, followed by the journal generation as a long.
+// Records from files that predate record ids are numbered 1..n as read.
+// Readers that only call readObject() never see the trailer. Written
+// through SnapshotFile, so the file ends in a checksum footer. Compressed
+// snapshots (CompressedSnapshotFormat) are read as well.
+public class SerializedSnapshotFormat implements SnapshotFormat {
+    private final Supplier<RecordStore> storeFactory;
+
+    public SerializedSnapshotFormat(Supplier<RecordStore> storeFactory) {
+        this.storeFactory = storeFactory;
+    }
+
+    @Override
+    public Snapshot read(Path file) throws IOException {
+        return SnapshotFile.read(file, in -> CompressedSnapshotFormat.readEither(in, storeFactory));
+    }
+
+    @SuppressWarnings("unchecked")
+    static Snapshot readFrom(InputStream in, Supplier<RecordStore> storeFactory) throws IOException {
+        try {
+            ObjectInputStream ois = new ObjectInputStream(in);
+            RecordStore store = storeFactory.get();
+            long position = 0;
+            for (FinancialRecord record : (List<FinancialRecord>) ois.readObject()) {
+                position++;
+                if (record.getId() == 0) {
+                    // Written before records had ids: number them in file order
+                    record.setId(position);
+                }
+                store.add(record);
+            }
+            long generation;
+            try {
+                generation = ois.readLong();
+            } catch (EOFException e) {
+                // Written before the journal existed
+                generation = 0;
+            }
+            return new Snapshot(store, generation);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public RecordStore emptyStore() {
+        return storeFactory.get();
+    }
+
+    @Override
+    public void write(Path file, List<FinancialRecord> records, long generation) throws IOException {
+        SnapshotFile.write(file, out -> {
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(records);
+            oos.writeLong(generation);
+            oos.flush();
+        });
+    }
+}
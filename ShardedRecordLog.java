@@ -0,0 +1,480 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Records split by user into hash buckets, one snapshot + journal per
+// bucket, in a data directory:
+//
+//   layout.properties          buckets, epoch, id reservation
+//   shard-<epoch>-<i>.dat      bucket i's snapshot, with its .wal segments
+//
+// A shard is only read when one of its users is first touched, and a
+// mutation is only journaled (and compacted) in its user's shard, so the
+// cost of a write depends on the size of that shard, not of the whole
+// data set. Shards that outgrow MAX_SHARD_RECORDS trigger a rebalance to
+// twice the buckets.
+//
+// Rebalancing writes a complete new epoch of shards next to the current
+// one. From the moment their snapshots are taken until layout.properties
+// names the new epoch, every mutation is journaled in both, so a crash at
+// any point leaves one complete epoch; files of any other epoch are
+// deleted on open.
+//
+// Ids are handed out by FinanceManager in blocks reserved in the layout
+// file, since the largest id may sit in a shard that hasn't been read.
+//
+// Usage: java ShardedRecordLog migrate [financial_records.dat] [financial_records.shards] [buckets]
+//        java ShardedRecordLog rebalance <dir> <buckets>
+public class ShardedRecordLog implements RecordLog {
+    public static final int DEFAULT_BUCKETS = Integer.getInteger("finance.shards", 16);
+    private static final int MAX_SHARD_RECORDS = Integer.getInteger("finance.shard.maxRecords", 100_000);
+    private static final int MAX_BUCKETS = 1 << 16;
+    private static final long ID_BLOCK = 100_000;
+    private static final String LAYOUT_FILE = "layout.properties";
+    private static final int LAYOUT_VERSION = 1;
+    private static final Metrics.Timer SHARD_LOAD_TIMER = Metrics.timer("shards.load");
+    private static final Metrics.Counter REBALANCES = Metrics.counter("shards.rebalances");
+
+    private final Path dir;
+    private RecordJournal.Replay replay;
+    // Replaced as a whole when a rebalance finishes; writers hold this
+    // object's lock, isLoaded() reads it without one
+    private volatile Shard[] current;
+    private long epoch;
+    // Journaled alongside current while a rebalance is in flight
+    private Shard[] pending;
+    private long pendingEpoch;
+    private CompletableFuture<Void> rebalancing;
+    private long reservedIds;
+
+    private static final class Shard {
+        final RecordJournal journal;
+        volatile boolean loaded;
+
+        Shard(RecordJournal journal, boolean loaded) {
+            this.journal = journal;
+            this.loaded = loaded;
+        }
+    }
+
+    // Opens the directory's layout, or starts an empty one with DEFAULT_BUCKETS
+    public ShardedRecordLog(String dataDir) {
+        this.dir = Paths.get(dataDir).toAbsolutePath();
+        int buckets = DEFAULT_BUCKETS;
+        try {
+            Properties layout = readLayout(dir);
+            if (layout == null) {
+                Files.createDirectories(dir);
+                writeLayout(dir, buckets, 0, 1);
+                reservedIds = 1;
+            } else {
+                buckets = Integer.parseInt(layout.getProperty("buckets"));
+                epoch = Long.parseLong(layout.getProperty("epoch"));
+                reservedIds = Long.parseLong(layout.getProperty("nextId"));
+            }
+            deleteOtherEpochs(dir, epoch);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("Error opening " + dir + ": " + e.getMessage(), e);
+        }
+        Shard[] shards = new Shard[buckets];
+        for (int i = 0; i < buckets; i++) {
+            shards[i] = new Shard(journal(dir, epoch, i), false);
+        }
+        current = shards;
+    }
+
+    public static int bucketOf(String username, int buckets) {
+        int h = username.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), buckets);
+    }
+
+    public synchronized int getBuckets() {
+        return current.length;
+    }
+
+    // Only hands over an empty store; shards are replayed into it on load()
+    @Override
+    public synchronized void recover(RecordJournal.Replay replay) {
+        this.replay = replay;
+        for (Shard shard : current) {
+            shard.loaded = false;
+        }
+        replay.loaded(FinanceManager.createStore());
+    }
+
+    @Override
+    public boolean isLoaded(String username) {
+        Shard[] shards = current;
+        return shards[bucketOf(username, shards.length)].loaded;
+    }
+
+    @Override
+    public synchronized void load(String username) {
+        load(current[bucketOf(username, current.length)]);
+    }
+
+    @Override
+    public synchronized void loadAll() {
+        for (Shard shard : current) {
+            load(shard);
+        }
+    }
+
+    private void load(Shard shard) {
+        if (shard.loaded) {
+            return;
+        }
+        long start = System.nanoTime();
+        shard.journal.recover(new RecordJournal.Replay() {
+            @Override
+            public void loaded(RecordStore store) {
+                for (int slot = 0; slot < store.slotCount(); slot++) {
+                    FinancialRecord record = store.get(slot);
+                    if (record != null) {
+                        replay.add(record);
+                    }
+                }
+            }
+
+            @Override
+            public void add(FinancialRecord record) {
+                replay.add(record);
+            }
+
+            @Override
+            public void delete(FinancialRecord record) {
+                replay.delete(record);
+            }
+        });
+        shard.loaded = true;
+        SHARD_LOAD_TIMER.recordSince(start);
+    }
+
+    // Frames are encoded once, before any shard queues one, so a record
+    // that can't be journaled leaves every shard untouched
+    @Override
+    public synchronized CompletableFuture<Void> logAdd(FinancialRecord record) {
+        return append(record, RecordJournal.addFrame(record));
+    }
+
+    // One batch per shard the records fall into
+    @Override
+    public synchronized CompletableFuture<Void> logAddAll(List<FinancialRecord> records) {
+        List<ByteBuffer> frames = RecordJournal.addFrames(records);
+        List<CompletableFuture<Void>> persisted = new ArrayList<>();
+        logAddAll(current, records, frames, persisted);
+        if (pending != null) {
+            logAddAll(pending, records, frames, persisted);
+        }
+        return CompletableFuture.allOf(persisted.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private static void logAddAll(Shard[] shards, List<FinancialRecord> records, List<ByteBuffer> frames,
+                                  List<CompletableFuture<Void>> persisted) {
+        List<List<ByteBuffer>> byShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            byShard.add(null);
+        }
+        for (int i = 0; i < records.size(); i++) {
+            int bucket = bucketOf(records.get(i).getUsername(), shards.length);
+            if (byShard.get(bucket) == null) {
+                byShard.set(bucket, new ArrayList<>());
+            }
+            byShard.get(bucket).add(frames.get(i).duplicate());
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (byShard.get(i) != null) {
+                persisted.add(shards[i].journal.append(byShard.get(i)));
+            }
+        }
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> logDelete(FinancialRecord record) {
+        return append(record, RecordJournal.deleteFrame(record));
+    }
+
+    private CompletableFuture<Void> append(FinancialRecord record, ByteBuffer frame) {
+        CompletableFuture<Void> persisted = shardFor(current, record).journal.append(List.of(frame.duplicate()));
+        if (pending != null) {
+            persisted = CompletableFuture.allOf(persisted,
+                shardFor(pending, record).journal.append(List.of(frame.duplicate())));
+        }
+        return persisted;
+    }
+
+    // Only loaded shards take writes, so only they can need compacting
+    @Override
+    public synchronized void compactIfNeeded(Function<Predicate<String>, List<FinancialRecord>> live) {
+        Shard[] shards = current;
+        for (int i = 0; i < shards.length; i++) {
+            if (!shards[i].journal.needsCompaction()) {
+                continue;
+            }
+            int bucket = i;
+            List<FinancialRecord> records = live.apply(u -> bucketOf(u, shards.length) == bucket);
+            shards[i].journal.compact(records);
+            if (records.size() > MAX_SHARD_RECORDS && rebalancing == null && shards.length < MAX_BUCKETS) {
+                loadAll();
+                rebalance(shards.length * 2, live);
+            }
+        }
+        if (pending != null) {
+            for (int i = 0; i < pending.length; i++) {
+                if (pending[i].journal.needsCompaction()) {
+                    int bucket = i;
+                    int buckets = pending.length;
+                    pending[i].journal.compact(live.apply(u -> bucketOf(u, buckets) == bucket));
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized long idFloor() {
+        return reservedIds;
+    }
+
+    @Override
+    public synchronized long reserveIds(long from) {
+        long bound = Math.max(from, reservedIds) + ID_BLOCK;
+        try {
+            writeLayout(dir, current.length, epoch, bound);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error reserving record ids: " + e.getMessage(), e);
+        }
+        reservedIds = bound;
+        return bound;
+    }
+
+    // Every shard must be loaded. The new shards' snapshots are copied here,
+    // under the caller's lock, and written on their journals' compactor
+    // threads; writes meanwhile go to both epochs.
+    @Override
+    public synchronized CompletableFuture<Void> rebalance(int buckets,
+                                                          Function<Predicate<String>, List<FinancialRecord>> live) {
+        if (buckets < 1 || buckets > MAX_BUCKETS) {
+            return CompletableFuture.failedFuture(
+                new IllegalArgumentException("Buckets must be between 1 and " + MAX_BUCKETS));
+        }
+        if (rebalancing != null) {
+            return rebalancing;
+        }
+        for (Shard shard : current) {
+            if (!shard.loaded) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Shards must be loaded first"));
+            }
+        }
+        REBALANCES.increment();
+        long nextEpoch = epoch + 1;
+        deleteEpoch(dir, nextEpoch);
+        Shard[] next = new Shard[buckets];
+        CompletableFuture<?>[] written = new CompletableFuture<?>[buckets];
+        for (int i = 0; i < buckets; i++) {
+            RecordJournal journal = journal(dir, nextEpoch, i);
+            journal.recover(new EmptyReplay());
+            int bucket = i;
+            written[i] = journal.compact(live.apply(u -> bucketOf(u, buckets) == bucket));
+            next[i] = new Shard(journal, true);
+        }
+        pending = next;
+        pendingEpoch = nextEpoch;
+        // Set before the callbacks are attached: if the snapshots are already
+        // written they run right here and must find this future to clear
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        rebalancing = done;
+        CompletableFuture.allOf(written).thenRun(() -> finishRebalance(done))
+            .whenComplete((ignored, error) -> {
+                if (error != null) {
+                    System.err.println("Error rebalancing records: " + error.getMessage());
+                    abandonRebalance(done);
+                    done.completeExceptionally(error);
+                } else {
+                    done.complete(null);
+                }
+            });
+        return done;
+    }
+
+    // Runs on a compactor thread once every new snapshot is in place
+    private synchronized void finishRebalance(CompletableFuture<Void> done) {
+        try {
+            writeLayout(dir, pending.length, pendingEpoch, reservedIds);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        Shard[] old = current;
+        long oldEpoch = epoch;
+        current = pending;
+        epoch = pendingEpoch;
+        pending = null;
+        if (rebalancing == done) {
+            rebalancing = null;
+        }
+        for (Shard shard : old) {
+            shard.journal.close();
+        }
+        deleteEpoch(dir, oldEpoch);
+    }
+
+    // Leaves alone a rebalance that has started since
+    private synchronized void abandonRebalance(CompletableFuture<Void> done) {
+        if (rebalancing != done) {
+            return;
+        }
+        rebalancing = null;
+        if (pending == null) {
+            return;
+        }
+        for (Shard shard : pending) {
+            shard.journal.close();
+        }
+        deleteEpoch(dir, pendingEpoch);
+        pending = null;
+    }
+
+    private static Shard shardFor(Shard[] shards, FinancialRecord record) {
+        return shards[bucketOf(record.getUsername(), shards.length)];
+    }
+
+    private static RecordJournal journal(Path dir, long epoch, int bucket) {
+        return RecordJournal.forFile(dir.resolve("shard-" + epoch + "-" + bucket + ".dat").toString(),
+            FinanceManager.streamFormat(ListRecordStore::new));
+    }
+
+    private static Properties readLayout(Path dir) throws IOException {
+        Path file = dir.resolve(LAYOUT_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties layout = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            layout.load(in);
+        }
+        if (Integer.parseInt(layout.getProperty("version", "0")) != LAYOUT_VERSION) {
+            throw new IOException("Unsupported layout version " + layout.getProperty("version"));
+        }
+        return layout;
+    }
+
+    // Replaced in one rename, after the new contents are on disk
+    private static void writeLayout(Path dir, int buckets, long epoch, long nextId) throws IOException {
+        Properties layout = new Properties();
+        layout.setProperty("version", Integer.toString(LAYOUT_VERSION));
+        layout.setProperty("buckets", Integer.toString(buckets));
+        layout.setProperty("epoch", Long.toString(epoch));
+        layout.setProperty("nextId", Long.toString(nextId));
+        Path temp = dir.resolve(LAYOUT_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            layout.store(out, "Record shards");
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, dir.resolve(LAYOUT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void deleteEpoch(Path dir, long epoch) {
+        deleteShardFiles(dir, e -> e == epoch);
+    }
+
+    private static void deleteOtherEpochs(Path dir, long epoch) {
+        deleteShardFiles(dir, e -> e != epoch);
+    }
+
+    private static void deleteShardFiles(Path dir, Predicate<Long> epochs) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "shard-*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int dash = name.indexOf('-', "shard-".length());
+                if (dash < 0) {
+                    continue;
+                }
+                try {
+                    if (epochs.test(Long.parseLong(name.substring("shard-".length(), dash)))) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error deleting old shards: " + e.getMessage());
+        }
+    }
+
+    // Splits a monolithic data file into `buckets` shards. The layout file
+    // is written last, so a directory without one is an unfinished
+    // migration and is started over.
+    public static void migrate(String dataFile, String dataDir, int buckets) throws IOException {
+        Path dir = Paths.get(dataDir).toAbsolutePath();
+        if (readLayout(dir) != null) {
+            throw new IOException(dir + " already holds sharded records");
+        }
+        Files.createDirectories(dir);
+        deleteShardFiles(dir, e -> true);
+        List<FinancialRecord> records = RecordJournal.readRecords(dataFile, FinanceManager.formatFor(dataFile));
+        List<List<FinancialRecord>> byShard = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            byShard.add(new ArrayList<>());
+        }
+        long nextId = 1;
+        for (FinancialRecord record : records) {
+            byShard.get(bucketOf(record.getUsername(), buckets)).add(record);
+            nextId = Math.max(nextId, record.getId() + 1);
+        }
+        SnapshotFormat format = FinanceManager.streamFormat(ListRecordStore::new);
+        for (int i = 0; i < buckets; i++) {
+            format.write(dir.resolve("shard-0-" + i + ".dat"), byShard.get(i), 0);
+        }
+        writeLayout(dir, buckets, 0, nextId);
+        System.out.printf("Migrated %d records from %s into %d shards in %s%n", records.size(), dataFile, buckets, dir);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String command = args.length > 0 ? args[0] : "";
+        if (command.equals("migrate")) {
+            migrate(args.length > 1 ? args[1] : "financial_records.dat",
+                args.length > 2 ? args[2] : "financial_records.shards",
+                args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BUCKETS);
+        } else if (command.equals("rebalance") && args.length == 3) {
+            FinanceManager manager = new FinanceManager(args[1]);
+            long start = System.nanoTime();
+            manager.rebalance(Integer.parseInt(args[2])).join();
+            System.out.printf("Rebalanced %s into %s shards in %d ms%n", args[1], args[2],
+                (System.nanoTime() - start) / 1_000_000);
+        } else {
+            System.err.println("Usage: java ShardedRecordLog migrate [file] [dir] [buckets]");
+            System.err.println("       java ShardedRecordLog rebalance <dir> <buckets>");
+            System.exit(1);
+        }
+    }
+
+    private static final class EmptyReplay implements RecordJournal.Replay {
+        @Override
+        public void loaded(RecordStore store) {
+        }
+
+        @Override
+        public void add(FinancialRecord record) {
+        }
+
+        @Override
+        public void delete(FinancialRecord record) {
+        }
+    }
+}
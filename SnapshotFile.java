@@ -0,0 +1,284 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// Whole-file snapshots that survive a crash at any point:
+//
+//   SnapshotFile.replace(target, out -> write the contents);
+//   T value = SnapshotFile.readNewest(target, in -> read the contents);
+//
+// The contents go to <target>.tmp through a 1 MiB direct buffer, followed
+// by a footer (length, CRC32C, magic), are fsynced, and only then renamed
+// over the target. The previous KEEP versions stay next to it as
+// <target>.1, <target>.2, ..., and reading falls back to the newest one
+// whose checksum holds. Files written before the footer existed are read
+// unchecked.
+public final class SnapshotFile {
+    // -Dfinance.snapshot.keep: previous versions kept next to the target
+    public static final int KEEP = Integer.getInteger("finance.snapshot.keep", 2);
+    private static final int MAGIC = 0x46534E31; // "FSN1"
+    private static final int FOOTER_SIZE = 16;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private SnapshotFile() {
+    }
+
+    public interface Body {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    public interface Reader<T> {
+        T read(InputStream in) throws IOException;
+    }
+
+    // Writes the file in place; callers that need atomicity go through
+    // replace(), or write a temp file and install() it. Returns the size.
+    public static long write(Path file, Body body) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChecksummedOutput out = new ChecksummedOutput(channel);
+            body.writeTo(out);
+            out.drain();
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putLong(out.length).putInt((int) out.crc.getValue()).putInt(MAGIC).flip();
+            while (footer.hasRemaining()) {
+                channel.write(footer);
+            }
+            channel.force(true);
+            return out.length + FOOTER_SIZE;
+        }
+    }
+
+    public static void replace(Path target, Body body) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        write(temp, body);
+        install(temp, target);
+    }
+
+    // Renames a finished temp file over the target, keeping the target's
+    // previous versions; the target exists throughout
+    public static void install(Path temp, Path target) throws IOException {
+        for (int k = KEEP; k > 1; k--) {
+            Path older = previous(target, k - 1);
+            if (Files.exists(older)) {
+                Files.move(older, previous(target, k), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        if (KEEP > 0 && Files.exists(target)) {
+            Path last = previous(target, 1);
+            Files.deleteIfExists(last);
+            try {
+                Files.createLink(last, target);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(target, last, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(target.toAbsolutePath().getParent());
+    }
+
+    // The target and its previous versions that exist, newest first
+    public static List<Path> generations(Path target) {
+        List<Path> files = new ArrayList<>();
+        if (Files.exists(target)) {
+            files.add(target);
+        }
+        for (int k = 1; k <= KEEP; k++) {
+            if (Files.exists(previous(target, k))) {
+                files.add(previous(target, k));
+            }
+        }
+        return files;
+    }
+
+    // Reads the newest version that checks out; throws the newest version's
+    // error if none does
+    public static <T> T readNewest(Path target, Reader<T> reader) throws IOException {
+        IOException failure = null;
+        for (Path file : generations(target)) {
+            try {
+                return read(file, reader);
+            } catch (IOException e) {
+                System.err.println("Error loading " + file + ": " + e.getMessage());
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        throw failure != null ? failure : new NoSuchFileException(target.toString());
+    }
+
+    // The reader sees the contents without the footer; what it returns only
+    // counts if the checksum over all of them matches
+    public static <T> T read(Path file, Reader<T> reader) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long length = size;
+            int expected = 0;
+            boolean checked = false;
+            if (size >= FOOTER_SIZE) {
+                ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+                while (footer.hasRemaining()) {
+                    if (channel.read(footer, size - FOOTER_SIZE + footer.position()) < 0) {
+                        break;
+                    }
+                }
+                footer.flip();
+                long bodyLength = footer.getLong();
+                int crc = footer.getInt();
+                if (footer.getInt() == MAGIC && bodyLength == size - FOOTER_SIZE) {
+                    length = bodyLength;
+                    expected = crc;
+                    checked = true;
+                }
+            }
+            ChecksummedInput in = new ChecksummedInput(channel, length);
+            T value;
+            try {
+                value = reader.read(in);
+            } catch (EOFException e) {
+                throw new IOException("Snapshot " + file + " is truncated", e);
+            }
+            if (checked) {
+                in.skipToEnd();
+                if ((int) in.crc.getValue() != expected) {
+                    throw new IOException("Checksum mismatch in " + file);
+                }
+            }
+            return value;
+        }
+    }
+
+    private static Path previous(Path target, int k) {
+        return target.resolveSibling(target.getFileName() + "." + k);
+    }
+
+    // Makes the rename itself durable; not supported on every platform
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+
+    // Closing leaves the channel open; write() owns it
+    private static final class ChecksummedOutput extends OutputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32C crc = new CRC32C();
+        private long length;
+
+        ChecksummedOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int chunk = Math.min(count, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+                count -= chunk;
+            }
+        }
+
+        void drain() throws IOException {
+            buffer.flip();
+            length += buffer.remaining();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    // The first `length` bytes of the channel, checksummed as they are read
+    private static final class ChecksummedInput extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32C crc = new CRC32C();
+        private long remaining;
+
+        ChecksummedInput(FileChannel channel, long length) {
+            this.channel = channel;
+            this.remaining = length;
+            buffer.flip();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buffer.hasRemaining() && !fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining() && !fill()) {
+                return -1;
+            }
+            int chunk = Math.min(count, buffer.remaining());
+            buffer.get(bytes, offset, chunk);
+            return chunk;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        void skipToEnd() throws IOException {
+            while (fill()) {
+                buffer.position(buffer.limit());
+            }
+        }
+
+        private boolean fill() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            buffer.clear();
+            if (buffer.capacity() > remaining) {
+                buffer.limit((int) remaining);
+            }
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Snapshot is shorter than its footer says");
+                }
+            }
+            buffer.flip();
+            remaining -= buffer.remaining();
+            crc.update(buffer.duplicate());
+            return true;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+// On-disk layout of the snapshot the journal compacts into. A format reads
+// a snapshot back as a ready-to-use RecordStore, so formats that can serve
+// records straight from the file don't have to materialize them first.
+public interface SnapshotFormat {
+    // Called only for files that exist
+    Snapshot read(Path file) throws IOException;
+
+    // Empty store for a data set that has no snapshot yet
+    RecordStore emptyStore();
+
+    void write(Path file, List<FinancialRecord> records, long generation) throws IOException;
+
+    class Snapshot {
+        public final RecordStore store;
+        // Journal generation the snapshot includes; older segments are obsolete
+        public final long generation;
+
+        public Snapshot(RecordStore store, long generation) {
+            this.store = store;
+            this.generation = generation;
+        }
+    }
+}
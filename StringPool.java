@@ -0,0 +1,45 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Dictionary encoding for repeated strings: each distinct value is stored
+// once and referred to by a dense int id. Ids are never reused.
+//
+// idOf and find belong to a single writer; valueOf may be called from any
+// thread for an id that was handed out before the caller saw it.
+public class StringPool {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private volatile String[] values = new String[16];
+    private volatile int size;
+
+    public int idOf(String value) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = size;
+            if (id == values.length) {
+                values = Arrays.copyOf(values, id * 2);
+            }
+            values[id] = value;
+            ids.put(value, id);
+            size = id + 1;
+        }
+        return id;
+    }
+
+    // Returns -1 if the value has never been pooled
+    public int find(String value) {
+        Integer id = ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    public String valueOf(int id) {
+        if (id >= size) {
+            throw new IndexOutOfBoundsException("No pooled string " + id);
+        }
+        return values[id];
+    }
+
+    public int size() {
+        return size;
+    }
+}
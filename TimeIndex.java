@@ -0,0 +1,133 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.LongFunction;
+
+// Each user's records ordered by date, as a skip list of (epoch millis, id)
+// keys; the id breaks ties between records with the same timestamp. A range
+// lookup is one O(log n) descent, then the k keys in the range are walked
+// in order.
+//
+// add and remove are called by one writer at a time; ranges are read
+// alongside it without locking and see the skip list's weakly consistent
+// view.
+public class TimeIndex {
+    private final Map<String, NavigableSet<Key>> keysByUser = new ConcurrentHashMap<>();
+
+    // Users are indexed on their first range query; until then add/remove
+    // skip them
+    public boolean isIndexed(String username) {
+        return keysByUser.containsKey(username);
+    }
+
+    // Indexes all of a user's records at once and only then publishes them
+    public void build(String username, List<FinancialRecord> records) {
+        NavigableSet<Key> keys = new ConcurrentSkipListSet<>();
+        for (FinancialRecord record : records) {
+            keys.add(Key.of(record));
+        }
+        keysByUser.put(username, keys);
+    }
+
+    public void add(FinancialRecord record) {
+        NavigableSet<Key> keys = keysByUser.get(record.getUsername());
+        if (keys != null) {
+            keys.add(Key.of(record));
+        }
+    }
+
+    public void remove(FinancialRecord record) {
+        NavigableSet<Key> keys = keysByUser.get(record.getUsername());
+        if (keys != null) {
+            keys.remove(Key.of(record));
+        }
+    }
+
+    // The user's records dated in [from, to), oldest first; null bounds are
+    // open. Records are resolved from their ids one at a time as the
+    // iterator advances, skipping ids resolve maps to null (deleted
+    // meanwhile).
+    public Iterator<FinancialRecord> range(String username, LocalDateTime from, LocalDateTime to,
+                                           LongFunction<FinancialRecord> resolve) {
+        NavigableSet<Key> keys = keysByUser.get(username);
+        if (keys == null) {
+            return Collections.emptyIterator();
+        }
+        NavigableSet<Key> window = keys;
+        if (from != null && to != null) {
+            window = keys.subSet(Key.first(from), true, Key.first(to), false);
+        } else if (from != null) {
+            window = keys.tailSet(Key.first(from), true);
+        } else if (to != null) {
+            window = keys.headSet(Key.first(to), false);
+        }
+        Iterator<Key> cursor = window.iterator();
+        return new Iterator<FinancialRecord>() {
+            private FinancialRecord next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && cursor.hasNext()) {
+                    next = resolve.apply(cursor.next().id);
+                }
+                return next != null;
+            }
+
+            @Override
+            public FinancialRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                FinancialRecord record = next;
+                next = null;
+                return record;
+            }
+        };
+    }
+
+    private static long epochMillis(LocalDateTime dateTime) {
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static final class Key implements Comparable<Key> {
+        private final long epochMillis;
+        private final long id;
+
+        private Key(long epochMillis, long id) {
+            this.epochMillis = epochMillis;
+            this.id = id;
+        }
+
+        static Key of(FinancialRecord record) {
+            return new Key(epochMillis(record.getDateTime()), record.getId());
+        }
+
+        // Sorts before every record at that instant
+        static Key first(LocalDateTime dateTime) {
+            return new Key(epochMillis(dateTime), Long.MIN_VALUE);
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byTime = Long.compare(epochMillis, other.epochMillis);
+            return byTime != 0 ? byTime : Long.compare(id, other.id);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && compareTo((Key) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(epochMillis * 31 + id);
+        }
+    }
+}
@@ -0,0 +1,400 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Streams one user's records for a date range from FinanceManager into a
+// file, one record at a time through a fixed-size buffer, so memory stays
+// flat however many records are exported. Two formats:
+//
+//   CSV        id,date,type,amount,category,description with a header row;
+//              dates are ISO-8601 and fields are quoted when needed; the
+//              import reads it back
+//   COLUMNAR   "FINCOL01", the username (UTF), then row groups of up to
+//              GROUP_ROWS records, each stored column by column (big-endian):
+//                int rows (0 ends the file)
+//                long ids[rows], long epochMillis (UTC)[rows],
+//                double amounts[rows], byte types[rows] (0 income, 1 expense),
+//                int categoryCount, categoryCount UTF strings,
+//                int categoryIndex[rows], rows UTF descriptions
+//
+// Either can be gzip-compressed; a .gz suffix on the file name selects it.
+public class TransactionExporter {
+    public enum Format { CSV, COLUMNAR }
+
+    private static final long COLUMNAR_MAGIC = 0x46494E434F4C3031L; // "FINCOL01"
+    private static final int GROUP_ROWS = 4096;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final DateTimeFormatter CSV_DATE = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    private TransactionExporter() {
+    }
+
+    // Format from the file name: .csv or .fcol, optionally followed by .gz
+    public static Format formatOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        return name.endsWith(".fcol") ? Format.COLUMNAR : Format.CSV;
+    }
+
+    public static boolean isGzip(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gz");
+    }
+
+    // Writes the user's records with dates in [from, to) (null bounds are
+    // open) and returns how many were written. The export goes to
+    // <file>.tmp and is renamed over the file once complete, so a failed
+    // export leaves any previous file as it was.
+    public static long export(FinanceManager financeManager, String username, LocalDate from, LocalDate to,
+                              Path file, Format format, boolean gzip) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            long count = write(financeManager, username, from, to, temp, format, gzip);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return count;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static long write(FinanceManager financeManager, String username, LocalDate from, LocalDate to,
+                              Path file, Format format, boolean gzip) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             Sink sink = new Sink(gzip
+                 ? Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE))
+                 : channel)) {
+            RecordWriter writer = format == Format.CSV ? new CsvWriter(sink) : new ColumnarWriter(sink, username);
+            try {
+                financeManager.forEachUserRecord(username, from, to, record -> {
+                    try {
+                        writer.write(record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.finish();
+            return writer.count();
+        }
+    }
+
+    // Reads a COLUMNAR export back, one record at a time
+    public static long readColumnar(Path file, Consumer<FinancialRecord> action) throws IOException {
+        InputStream raw = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        if (isGzip(file)) {
+            raw = new GZIPInputStream(raw, BUFFER_SIZE);
+        }
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(raw)) {
+            if (in.readLong() != COLUMNAR_MAGIC) {
+                throw new IOException(file.getFileName() + " is not a columnar export");
+            }
+            String username = in.readUTF();
+            long[] ids = new long[GROUP_ROWS];
+            long[] timestamps = new long[GROUP_ROWS];
+            double[] amounts = new double[GROUP_ROWS];
+            byte[] types = new byte[GROUP_ROWS];
+            int[] categories = new int[GROUP_ROWS];
+            int rows;
+            while ((rows = in.readInt()) > 0) {
+                if (rows > GROUP_ROWS) {
+                    throw new IOException("Corrupt row group of " + rows + " rows");
+                }
+                for (int i = 0; i < rows; i++) {
+                    ids[i] = in.readLong();
+                }
+                for (int i = 0; i < rows; i++) {
+                    timestamps[i] = in.readLong();
+                }
+                for (int i = 0; i < rows; i++) {
+                    amounts[i] = in.readDouble();
+                }
+                in.readFully(types, 0, rows);
+                String[] dictionary = new String[in.readInt()];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = in.readUTF();
+                }
+                for (int i = 0; i < rows; i++) {
+                    categories[i] = in.readInt();
+                }
+                for (int i = 0; i < rows; i++) {
+                    FinancialRecord record = new FinancialRecord(amounts[i], types[i] == 0 ? "INCOME" : "EXPENSE",
+                        in.readUTF(), dictionary[categories[i]], username,
+                        LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamps[i]), ZoneOffset.UTC));
+                    record.setId(ids[i]);
+                    action.accept(record);
+                    count++;
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException(file.getFileName() + " is truncated", e);
+        }
+        return count;
+    }
+
+    private interface RecordWriter {
+        void write(FinancialRecord record) throws IOException;
+
+        void finish() throws IOException;
+
+        long count();
+    }
+
+    private static class CsvWriter implements RecordWriter {
+        private final Sink sink;
+        private final StringBuilder line = new StringBuilder(128);
+        private long count;
+
+        CsvWriter(Sink sink) throws IOException {
+            this.sink = sink;
+            sink.putUtf8("id,date,type,amount,category,description\n");
+        }
+
+        @Override
+        public void write(FinancialRecord record) throws IOException {
+            line.setLength(0);
+            line.append(record.getId()).append(',');
+            CSV_DATE.formatTo(record.getDateTime(), line);
+            line.append(',').append(record.getType()).append(',').append(record.getAmount()).append(',');
+            quote(record.getCategory());
+            line.append(',');
+            quote(record.getDescription());
+            line.append('\n');
+            sink.putUtf8(line);
+            count++;
+        }
+
+        // A null field is written empty
+        private void quote(String value) {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0) {
+                line.append(value);
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    line.append('"');
+                }
+                line.append(c);
+            }
+            line.append('"');
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+    }
+
+    // Buffers one row group in fixed arrays and writes it column by column
+    private static class ColumnarWriter implements RecordWriter {
+        private final Sink sink;
+        private final long[] ids = new long[GROUP_ROWS];
+        private final long[] timestamps = new long[GROUP_ROWS];
+        private final double[] amounts = new double[GROUP_ROWS];
+        private final byte[] types = new byte[GROUP_ROWS];
+        private final int[] categories = new int[GROUP_ROWS];
+        private final String[] descriptions = new String[GROUP_ROWS];
+        // Category dictionary of the current group, in id order
+        private final Map<String, Integer> categoryIds = new HashMap<>();
+        private final String[] categoryNames = new String[GROUP_ROWS];
+        private int rows;
+        private long count;
+
+        ColumnarWriter(Sink sink, String username) throws IOException {
+            this.sink = sink;
+            sink.buffer(Long.BYTES).putLong(COLUMNAR_MAGIC);
+            sink.putUtf(username);
+        }
+
+        @Override
+        public void write(FinancialRecord record) throws IOException {
+            ids[rows] = record.getId();
+            timestamps[rows] = record.getDateTime().toInstant(ZoneOffset.UTC).toEpochMilli();
+            amounts[rows] = record.getAmount();
+            types[rows] = (byte) (record.getType().equals("INCOME") ? 0 : 1);
+            // Null strings are written empty, as in the CSV
+            String categoryName = record.getCategory() == null ? "" : record.getCategory();
+            Integer category = categoryIds.get(categoryName);
+            if (category == null) {
+                category = categoryIds.size();
+                categoryIds.put(categoryName, category);
+                categoryNames[category] = categoryName;
+            }
+            categories[rows] = category;
+            descriptions[rows] = record.getDescription() == null ? "" : record.getDescription();
+            rows++;
+            count++;
+            if (rows == GROUP_ROWS) {
+                flushGroup();
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (rows > 0) {
+                flushGroup();
+            }
+            sink.buffer(Integer.BYTES).putInt(0);
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+
+        private void flushGroup() throws IOException {
+            sink.buffer(Integer.BYTES).putInt(rows);
+            for (int i = 0; i < rows; i++) {
+                sink.buffer(Long.BYTES).putLong(ids[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                sink.buffer(Long.BYTES).putLong(timestamps[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                sink.buffer(Double.BYTES).putDouble(amounts[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                sink.buffer(1).put(types[i]);
+            }
+            sink.buffer(Integer.BYTES).putInt(categoryIds.size());
+            for (int i = 0; i < categoryIds.size(); i++) {
+                sink.putUtf(categoryNames[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                sink.buffer(Integer.BYTES).putInt(categories[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                sink.putUtf(descriptions[i]);
+                descriptions[i] = null;
+            }
+            categoryIds.clear();
+            rows = 0;
+        }
+    }
+
+    // Fixed-size direct buffer in front of the target channel
+    private static class Sink implements AutoCloseable {
+        private final WritableByteChannel target;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Sink(WritableByteChannel target) {
+            this.target = target;
+        }
+
+        // The buffer, with at least the given number of bytes free
+        ByteBuffer buffer(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+            return buffer;
+        }
+
+        void putUtf8(CharSequence text) throws IOException {
+            put(text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Same encoding as DataOutput.writeUTF, so DataInputStream can read it
+        void putUtf(String value) throws IOException {
+            byte[] bytes = modifiedUtf8(value);
+            buffer(Short.BYTES).putShort((short) bytes.length);
+            put(bytes);
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            int written = 0;
+            while (written < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int length = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, length);
+                written += length;
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                target.close();
+            }
+        }
+
+        private static byte[] modifiedUtf8(String value) throws IOException {
+            int length = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+            }
+            if (length > 0xFFFF) {
+                throw new IOException("String too long to export: " + length + " bytes");
+            }
+            byte[] bytes = new byte[length];
+            int position = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c >= 0x0001 && c <= 0x007F) {
+                    bytes[position++] = (byte) c;
+                } else if (c <= 0x07FF) {
+                    bytes[position++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                    bytes[position++] = (byte) (0x80 | (c & 0x3F));
+                } else {
+                    bytes[position++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                    bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,603 @@
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParsePosition;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+// Streams a bank export (CSV, or OFX/QFX by extension) into FinanceManager
+// for one user. The file is read in chunks of CHUNK_ROWS raw rows; each
+// chunk is validated and mapped to FinancialRecords on the common pool
+// while the next one is being parsed, and chunks are committed in file
+// order through FinanceManager.addRecords, one journal flush per chunk.
+//
+// CSV files need a header row naming at least date, amount and
+// description columns; category and type are optional. Without a type
+// column, negative amounts are expenses. Quoted fields may span lines;
+// errors name the line a row starts on.
+public class TransactionImporter {
+    private static final int CHUNK_ROWS = 5000;
+    // Chunks parsed ahead of the one being committed
+    private static final int MAX_IN_FLIGHT = 4;
+    private static final int MAX_ERRORS = 100;
+    private static final String DEFAULT_CATEGORY = "Other";
+    private static final List<DateTimeFormatter> DATE_TIME_FORMATS = List.of(
+        DateTimeFormatter.ISO_LOCAL_DATE_TIME,
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm[:ss]"),
+        DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm[:ss]"));
+    private static final List<DateTimeFormatter> DATE_FORMATS = List.of(
+        DateTimeFormatter.ISO_LOCAL_DATE,
+        DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+    private static final DateTimeFormatter OFX_DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    public interface Listener {
+        // Called on the import thread after every committed chunk
+        void progress(Progress progress);
+    }
+
+    public static class Progress {
+        public final long bytesRead;
+        public final long totalBytes;
+        public final long imported;
+        public final long rejected;
+
+        Progress(long bytesRead, long totalBytes, long imported, long rejected) {
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.imported = imported;
+            this.rejected = rejected;
+        }
+
+        public int percent() {
+            return totalBytes <= 0 ? 0 : (int) Math.min(100, bytesRead * 100 / totalBytes);
+        }
+    }
+
+    public static class Result {
+        public final long imported;
+        public final long rejected;
+        public final boolean cancelled;
+        // The first MAX_ERRORS rejections, with their line numbers
+        public final List<String> errors;
+
+        Result(long imported, long rejected, boolean cancelled, List<String> errors) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.cancelled = cancelled;
+            this.errors = Collections.unmodifiableList(errors);
+        }
+    }
+
+    private final FinanceManager financeManager;
+    private final String username;
+    private volatile boolean cancelled;
+
+    public TransactionImporter(FinanceManager financeManager, String username) {
+        this.financeManager = financeManager;
+        this.username = username;
+    }
+
+    // Runs the import on its own thread. The future completes once every
+    // committed chunk is durable or has failed, the failed chunks' rows
+    // counting as rejected; it fails only if the file cannot be read.
+    public CompletableFuture<Result> start(Path file, Listener listener) {
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                result.complete(run(file, listener));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error importing " + file.getFileName() + ": " + e.getMessage());
+                result.completeExceptionally(e);
+            }
+        }, "import");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    // Stops after the chunk being committed; chunks already committed stay
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private Result run(Path file, Listener listener) throws IOException {
+        long totalBytes = Files.size(file);
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        boolean ofx = name.endsWith(".ofx") || name.endsWith(".qfx");
+
+        List<String> errors = new ArrayList<>();
+        long imported = 0;
+        long rejected = 0;
+        // One future per committed chunk, with its row count
+        List<CompletableFuture<Void>> persisted = new ArrayList<>();
+        List<Integer> persistedRows = new ArrayList<>();
+        Deque<CompletableFuture<Chunk>> inFlight = new ArrayDeque<>();
+
+        try (CountingInputStream counter = new CountingInputStream(Files.newInputStream(file));
+             BufferedReader reader = new BufferedReader(
+                 new InputStreamReader(counter, StandardCharsets.UTF_8), 1 << 16)) {
+            RowSource source = ofx ? new OfxRows(reader) : new CsvRows(reader);
+            boolean more = true;
+            while (!cancelled && (more || !inFlight.isEmpty())) {
+                if (more && inFlight.size() < MAX_IN_FLIGHT) {
+                    List<RawRow> rows = source.next(CHUNK_ROWS);
+                    if (rows.isEmpty()) {
+                        more = false;
+                    } else {
+                        inFlight.add(CompletableFuture.supplyAsync(() -> validate(rows)));
+                    }
+                    continue;
+                }
+
+                Chunk chunk = join(inFlight.poll());
+                if (!chunk.records.isEmpty()) {
+                    persisted.add(financeManager.addRecords(chunk.records));
+                    persistedRows.add(chunk.records.size());
+                }
+                imported += chunk.records.size();
+                rejected += chunk.errors.size();
+                for (String error : chunk.errors) {
+                    if (errors.size() < MAX_ERRORS) {
+                        errors.add(error);
+                    }
+                }
+                listener.progress(new Progress(counter.count, totalBytes, imported, rejected));
+            }
+        }
+
+        // Rows of a chunk that never became durable count as rejected
+        try {
+            join(CompletableFuture.allOf(persisted.toArray(new CompletableFuture<?>[0])));
+        } catch (IOException e) {
+            long unsaved = 0;
+            for (int i = 0; i < persisted.size(); i++) {
+                if (persisted.get(i).isCompletedExceptionally()) {
+                    unsaved += persistedRows.get(i);
+                }
+            }
+            imported -= unsaved;
+            rejected += unsaved;
+            errors.add(0, unsaved + " rows could not be saved: " + e.getMessage());
+        }
+        return new Result(imported, rejected, cancelled, errors);
+    }
+
+    private Chunk validate(List<RawRow> rows) {
+        Chunk chunk = new Chunk(rows.size());
+        rows.parallelStream().map(this::toRecord).forEachOrdered(mapped -> {
+            if (mapped instanceof FinancialRecord) {
+                chunk.records.add((FinancialRecord) mapped);
+            } else {
+                chunk.errors.add((String) mapped);
+            }
+        });
+        return chunk;
+    }
+
+    // Returns the record, or an error message for the row
+    private Object toRecord(RawRow row) {
+        if (row.error != null) {
+            return "Line " + row.line + ": " + row.error;
+        }
+        double amount;
+        try {
+            amount = Double.parseDouble(row.amount.trim().replace(",", "").replace("$", ""));
+        } catch (NumberFormatException e) {
+            return "Line " + row.line + ": invalid amount '" + row.amount + "'";
+        }
+        if (Double.isNaN(amount) || Double.isInfinite(amount) || amount == 0) {
+            return "Line " + row.line + ": invalid amount '" + row.amount + "'";
+        }
+
+        LocalDateTime dateTime = parseDate(row.date.trim());
+        if (dateTime == null) {
+            return "Line " + row.line + ": invalid date '" + row.date + "'";
+        }
+
+        String type;
+        if (row.type == null || row.type.isBlank()) {
+            type = amount < 0 ? "EXPENSE" : "INCOME";
+        } else {
+            type = row.type.trim().toUpperCase(Locale.ROOT);
+            if (type.equals("DEBIT")) {
+                type = "EXPENSE";
+            } else if (type.equals("CREDIT")) {
+                type = "INCOME";
+            }
+            if (!type.equals("INCOME") && !type.equals("EXPENSE")) {
+                return "Line " + row.line + ": unknown type '" + row.type + "'";
+            }
+        }
+
+        String description = row.description == null ? "" : row.description.trim();
+        if (description.isEmpty()) {
+            return "Line " + row.line + ": missing description";
+        }
+        String category = row.category == null || row.category.isBlank() ? DEFAULT_CATEGORY : row.category.trim();
+        return new FinancialRecord(Math.abs(amount), type, description, category, username, dateTime);
+    }
+
+    // Formats are probed with parseUnresolved, which reports a mismatch
+    // without throwing; exceptions only come from values that match a
+    // format's shape but are out of range, like month 13
+    private static LocalDateTime parseDate(String value) {
+        // OFX: yyyyMMdd[HHmmss[.XXX]][[offset:TZ]]
+        if (leadingDigits(value) >= 14) {
+            return parse(value.substring(0, 14), OFX_DATE_TIME, true);
+        }
+        if (leadingDigits(value) == 8) {
+            return parse(value.substring(0, 8), DateTimeFormatter.BASIC_ISO_DATE, false);
+        }
+        for (DateTimeFormatter format : DATE_TIME_FORMATS) {
+            if (matches(value, format)) {
+                return parse(value, format, true);
+            }
+        }
+        for (DateTimeFormatter format : DATE_FORMATS) {
+            if (matches(value, format)) {
+                return parse(value, format, false);
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(String value, DateTimeFormatter format) {
+        ParsePosition position = new ParsePosition(0);
+        return format.parseUnresolved(value, position) != null
+            && position.getErrorIndex() < 0 && position.getIndex() == value.length();
+    }
+
+    private static LocalDateTime parse(String value, DateTimeFormatter format, boolean withTime) {
+        try {
+            return withTime ? LocalDateTime.parse(value, format) : LocalDate.parse(value, format).atStartOfDay();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static int leadingDigits(String value) {
+        int digits = 0;
+        while (digits < value.length() && Character.isDigit(value.charAt(digits))) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    // One transaction as found in the file, before validation
+    private static class RawRow {
+        long line;
+        String date;
+        String amount;
+        String description;
+        String category;
+        String type;
+        // Set when the row could not even be split into fields
+        String error;
+    }
+
+    private static class Chunk {
+        final List<FinancialRecord> records;
+        final List<String> errors = new ArrayList<>();
+
+        Chunk(int size) {
+            records = new ArrayList<>(size);
+        }
+    }
+
+    private interface RowSource {
+        // Up to max rows; an empty list at the end of the file
+        List<RawRow> next(int max) throws IOException;
+    }
+
+    private static class CsvRows implements RowSource {
+        private final BufferedReader reader;
+        // Read in blocks; the parser looks at one char at a time
+        private final char[] buffer = new char[1 << 16];
+        private int position;
+        private int limit;
+        private int dateColumn = -1;
+        private int amountColumn = -1;
+        private int descriptionColumn = -1;
+        private int categoryColumn = -1;
+        private int typeColumn = -1;
+        // Lines read so far; a record may span several
+        private long line;
+        // Set when the file ended inside a quoted field
+        private boolean unterminated;
+
+        CsvRows(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            List<String> columns = readRecord();
+            if (columns == null) {
+                return;
+            }
+            if (columns.get(0).startsWith("\uFEFF")) {
+                columns.set(0, columns.get(0).substring(1));
+            }
+            for (int i = 0; i < columns.size(); i++) {
+                switch (columns.get(i).trim().toLowerCase(Locale.ROOT)) {
+                    case "date": case "posted": case "transaction date": dateColumn = i; break;
+                    case "amount": amountColumn = i; break;
+                    case "description": case "memo": case "payee": case "name":
+                        if (descriptionColumn < 0) {
+                            descriptionColumn = i;
+                        }
+                        break;
+                    case "category": categoryColumn = i; break;
+                    case "type": typeColumn = i; break;
+                    default: break;
+                }
+            }
+            if (dateColumn < 0 || amountColumn < 0 || descriptionColumn < 0) {
+                throw new IOException("CSV header must name date, amount and description columns: "
+                    + String.join(",", columns));
+            }
+        }
+
+        @Override
+        public List<RawRow> next(int max) throws IOException {
+            List<RawRow> rows = new ArrayList<>(max);
+            while (rows.size() < max) {
+                long first = line + 1;
+                List<String> fields = readRecord();
+                if (fields == null) {
+                    break;
+                }
+                if (fields.size() == 1 && fields.get(0).isBlank()) {
+                    continue;
+                }
+                RawRow row = new RawRow();
+                row.line = first;
+                if (unterminated) {
+                    row.error = "quoted field is never closed";
+                } else if (fields.size() <= Math.max(dateColumn, Math.max(amountColumn, descriptionColumn))) {
+                    row.error = "expected at least " + (Math.max(dateColumn, Math.max(amountColumn, descriptionColumn)) + 1)
+                        + " fields, found " + fields.size();
+                } else {
+                    row.date = fields.get(dateColumn);
+                    row.amount = fields.get(amountColumn);
+                    row.description = fields.get(descriptionColumn);
+                    row.category = field(fields, categoryColumn);
+                    row.type = field(fields, typeColumn);
+                }
+                rows.add(row);
+            }
+            return rows;
+        }
+
+        private static String field(List<String> fields, int column) {
+            return column >= 0 && column < fields.size() ? fields.get(column) : null;
+        }
+
+        // One RFC 4180 record, or null at the end of the file. Quoted fields
+        // may contain commas, doubled quotes and line breaks, which are kept
+        // as written, so whatever TransactionExporter quotes reads back
+        // unchanged. Records end at \n, \r\n or \r.
+        private List<String> readRecord() throws IOException {
+            int c = read();
+            if (c < 0) {
+                return null;
+            }
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (; c >= 0; c = read()) {
+                if (quoted) {
+                    if (c == '"' && peek() == '"') {
+                        field.append('"');
+                        read();
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        if (c == '\n' || (c == '\r' && peek() != '\n')) {
+                            line++;
+                        }
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c == '\r') {
+                    if (c == '\r' && peek() == '\n') {
+                        read();
+                    }
+                    break;
+                } else {
+                    field.append((char) c);
+                }
+            }
+            line++;
+            unterminated = quoted;
+            fields.add(field.toString());
+            return fields;
+        }
+
+        // The next char, or -1 at the end of the file
+        private int read() throws IOException {
+            int c = peek();
+            if (c >= 0) {
+                position++;
+            }
+            return c;
+        }
+
+        private int peek() throws IOException {
+            if (position == limit) {
+                int count = reader.read(buffer, 0, buffer.length);
+                if (count <= 0) {
+                    return -1;
+                }
+                position = 0;
+                limit = count;
+            }
+            return buffer[position];
+        }
+    }
+
+    // OFX 1.x (SGML, closing tags optional) and 2.x (XML) statements: every
+    // <STMTTRN> aggregate becomes one row
+    private static class OfxRows implements RowSource {
+        private final BufferedReader reader;
+        private final StringBuilder token = new StringBuilder();
+        private long line = 1;
+        private boolean eof;
+
+        OfxRows(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public List<RawRow> next(int max) throws IOException {
+            List<RawRow> rows = new ArrayList<>(max);
+            RawRow row = null;
+            String tag;
+            while (rows.size() < max && (tag = nextTag()) != null) {
+                String value = readValue();
+                switch (tag) {
+                    case "STMTTRN":
+                        row = new RawRow();
+                        row.line = line;
+                        break;
+                    case "/STMTTRN":
+                        if (row != null) {
+                            if (row.date == null || row.amount == null) {
+                                row.error = "transaction without DTPOSTED or TRNAMT";
+                            }
+                            rows.add(row);
+                        }
+                        row = null;
+                        break;
+                    case "DTPOSTED":
+                        if (row != null) {
+                            row.date = value;
+                        }
+                        break;
+                    case "TRNAMT":
+                        if (row != null) {
+                            row.amount = value;
+                        }
+                        break;
+                    case "NAME":
+                        if (row != null) {
+                            row.description = value;
+                        }
+                        break;
+                    case "MEMO":
+                        if (row != null && (row.description == null || row.description.isBlank())) {
+                            row.description = value;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return rows;
+        }
+
+        // Name of the next tag, without the angle brackets
+        private String nextTag() throws IOException {
+            int c;
+            while ((c = read()) != -1 && c != '<') {
+                // Skip to the next tag
+            }
+            if (c == -1) {
+                return null;
+            }
+            token.setLength(0);
+            while ((c = read()) != -1 && c != '>') {
+                token.append((char) c);
+            }
+            return token.toString().trim().toUpperCase(Locale.ROOT);
+        }
+
+        // Text up to the next tag, which is left unread
+        private String readValue() throws IOException {
+            token.setLength(0);
+            int c;
+            reader.mark(1);
+            while ((c = read()) != -1 && c != '<') {
+                token.append((char) c);
+                reader.mark(1);
+            }
+            if (c == '<') {
+                reader.reset();
+            }
+            return unescape(token.toString().trim());
+        }
+
+        private int read() throws IOException {
+            if (eof) {
+                return -1;
+            }
+            int c = reader.read();
+            if (c == '\n') {
+                line++;
+            } else if (c == -1) {
+                eof = true;
+            }
+            return c;
+        }
+
+        private static String unescape(String value) {
+            if (value.indexOf('&') < 0) {
+                return value;
+            }
+            return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import javax.swing.table.AbstractTableModel;
+
+// Table model over one user's records in FinanceManager. Nothing is copied
+// or pre-formatted: JTable only asks for the cells it paints, and callers
+// report mutations as single-row events instead of reloading the table.
+// The model holds one version of the user's records, so the row count and
+// the cells agree until the next notification; rows deleted elsewhere in
+// the meantime render blank. While a search or a date window is shown, the
+// rows are its records instead.
+//
+// The model never reads FinanceManager itself: in a sharded data directory
+// the first read of a user loads their shard from disk, so callers take
+// the snapshot off the EDT and hand it in. It starts out empty.
+public class TransactionTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"Amount", "Category", "Description", "Date"};
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+
+    private FinanceManager.UserRecords rows = FinanceManager.UserRecords.EMPTY;
+    // Records being shown, or null for all of the user's records
+    private List<FinancialRecord> subset;
+    // A row is painted cell by cell; keep its record for the other columns
+    private int cachedRow = -1;
+    private FinancialRecord cachedRecord;
+
+    @Override
+    public int getRowCount() {
+        return subset != null ? subset.size() : rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        FinancialRecord record = getRecord(row);
+        if (record == null) {
+            // Deleted from another session; the next notification drops the row
+            return "";
+        }
+        switch (column) {
+            case 0:
+                return (record.getType().equals("INCOME") ? "+ $" : "- $") + String.format("%.2f", record.getAmount());
+            case 1:
+                return record.getCategory();
+            case 2:
+                return record.getDescription();
+            default:
+                return DATE_FORMAT.format(record.getDateTime());
+        }
+    }
+
+    public FinancialRecord getRecord(int row) {
+        if (row != cachedRow) {
+            if (subset != null) {
+                cachedRecord = row >= 0 && row < subset.size() ? subset.get(row) : null;
+            } else {
+                cachedRecord = rows.get(row);
+            }
+            cachedRow = row;
+        }
+        return cachedRecord;
+    }
+
+    // Call with the records as of after a record was appended for this
+    // user. Other sessions may have changed the records too, in which case
+    // the whole table repaints.
+    public void recordAdded(FinanceManager.UserRecords records) {
+        int before = rows.size();
+        refresh(records);
+        if (subset == null && rows.size() > before) {
+            fireTableRowsInserted(before, rows.size() - 1);
+        } else {
+            fireTableDataChanged();
+        }
+    }
+
+    // Call with the records as of after the record at this row was deleted
+    public void recordDeleted(int row, FinanceManager.UserRecords records) {
+        int before = rows.size();
+        refresh(records);
+        if (subset == null && rows.size() == before - 1) {
+            fireTableRowsDeleted(row, row);
+        } else {
+            fireTableDataChanged();
+        }
+    }
+
+    public void showRecords(List<FinancialRecord> records) {
+        subset = records;
+        refresh(rows);
+        fireTableDataChanged();
+    }
+
+    public void showAll(FinanceManager.UserRecords records) {
+        subset = null;
+        refresh(records);
+        fireTableDataChanged();
+    }
+
+    public boolean isFiltered() {
+        return subset != null;
+    }
+
+    private void refresh(FinanceManager.UserRecords records) {
+        rows = records;
+        cachedRow = -1;
+        cachedRecord = null;
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+// Runs a frame's data work off the EDT and hands the result back on it.
+//
+//   scheduler.submit("summary", () -> compute totals, totals -> update labels);
+//
+// Work submitted under a key supersedes earlier work under the same key:
+// if that hasn't started it never runs, and if it has, its result is
+// dropped, so rapid clicks or keystrokes only paint the latest answer.
+// Work without a key (saves, deletes) always delivers. Nothing is delivered
+// after close(), so callbacks never touch a disposed frame.
+//
+// Work runs on a virtual thread per task where the JDK has them (see
+// VirtualThreads), otherwise on a few shared platform threads; running
+// work is never interrupted, since an interrupt closes the journal's
+// FileChannel.
+public class UiScheduler {
+    private static final int FALLBACK_THREADS = 4;
+    private static final ExecutorService EXECUTOR = VirtualThreads.newPerTaskExecutor("ui-worker", FALLBACK_THREADS);
+    private static final AtomicInteger QUEUED = new AtomicInteger();
+    private static final AtomicInteger RUNNING = new AtomicInteger();
+    // Submit to start, start to finish, and submit to the result shown on the EDT
+    private static final Metrics.Timer WAIT_TIMER = Metrics.timer("ui.tasks.wait");
+    private static final Metrics.Timer RUN_TIMER = Metrics.timer("ui.tasks.run");
+    private static final Metrics.Timer LATENCY_TIMER = Metrics.timer("ui.tasks.latency");
+    private static final Metrics.Counter SUPERSEDED = Metrics.counter("ui.tasks.superseded");
+    private static final Metrics.Counter FAILED = Metrics.counter("ui.tasks.failed");
+
+    static {
+        Metrics.gauge("ui.tasks.queued", QUEUED::get);
+        Metrics.gauge("ui.tasks.running", RUNNING::get);
+    }
+
+    public interface Work<T> {
+        T run() throws Exception;
+    }
+
+    private final Consumer<Throwable> onError;
+    private final Map<String, Task<?>> latest = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    // onError runs on the EDT for work that throws and has no handler of its own
+    public UiScheduler(Consumer<Throwable> onError) {
+        this.onError = onError;
+    }
+
+    public <T> void submit(Work<T> work, Consumer<? super T> onResult) {
+        submit(null, work, onResult, onError);
+    }
+
+    public <T> void submit(String key, Work<T> work, Consumer<? super T> onResult) {
+        submit(key, work, onResult, onError);
+    }
+
+    public <T> void submit(String key, Work<T> work, Consumer<? super T> onResult, Consumer<Throwable> onError) {
+        if (closed) {
+            return;
+        }
+        Task<T> task = new Task<>(key, work, onResult, onError);
+        if (key != null) {
+            Task<?> previous = latest.put(key, task);
+            if (previous != null) {
+                previous.cancel();
+            }
+        }
+        QUEUED.incrementAndGet();
+        task.future = EXECUTOR.submit(task);
+    }
+
+    // Drops pending work and any result not yet delivered
+    public void close() {
+        closed = true;
+        for (Task<?> task : latest.values()) {
+            task.cancel();
+        }
+        latest.clear();
+    }
+
+    private final class Task<T> implements Runnable {
+        private final String key;
+        private final Work<T> work;
+        private final Consumer<? super T> onResult;
+        private final Consumer<Throwable> onError;
+        private final long submitted = System.nanoTime();
+        private final AtomicBoolean dequeued = new AtomicBoolean();
+        private volatile Future<?> future;
+
+        Task(String key, Work<T> work, Consumer<? super T> onResult, Consumer<Throwable> onError) {
+            this.key = key;
+            this.work = work;
+            this.onResult = onResult;
+            this.onError = onError;
+        }
+
+        @Override
+        public void run() {
+            if (!dequeued.compareAndSet(false, true)) {
+                return;
+            }
+            QUEUED.decrementAndGet();
+            long start = System.nanoTime();
+            WAIT_TIMER.record(start - submitted);
+            RUNNING.incrementAndGet();
+            T result = null;
+            Throwable error = null;
+            try {
+                result = work.run();
+            } catch (Exception e) {
+                error = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            } finally {
+                RUNNING.decrementAndGet();
+                RUN_TIMER.recordSince(start);
+            }
+            T value = result;
+            Throwable failure = error;
+            SwingUtilities.invokeLater(() -> deliver(value, failure));
+        }
+
+        private void deliver(T result, Throwable error) {
+            if (closed) {
+                return;
+            }
+            if (key != null && !latest.remove(key, this)) {
+                SUPERSEDED.increment();
+                return;
+            }
+            LATENCY_TIMER.recordSince(submitted);
+            if (error != null) {
+                FAILED.increment();
+                onError.accept(error);
+            } else {
+                onResult.accept(result);
+            }
+        }
+
+        // Work that has started finishes, but deliver() drops its result
+        void cancel() {
+            if (dequeued.compareAndSet(false, true)) {
+                QUEUED.decrementAndGet();
+                SUPERSEDED.increment();
+                Future<?> pending = future;
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+            }
+        }
+    }
+}
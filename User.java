@@ -3,7 +3,9 @@ import java.io.Serializable;
 public abstract class User implements Serializable {
     private static final long serialVersionUID = 1L;
     protected String username;
-    protected String password;
+    // A PasswordHasher credential, or plaintext for accounts saved before
+    // hashing; those are rehashed on their next login
+    protected volatile String password;
 
     public User(String username, String password) {
         this.username = username;
@@ -15,6 +17,14 @@ public abstract class User implements Serializable {
     }
 
     public boolean authenticate(String inputPassword) {
-        return this.password != null && this.password.equals(inputPassword);
+        return PasswordHasher.verify(password, inputPassword);
+    }
+
+    String credential() {
+        return password;
+    }
+
+    void setCredential(String credential) {
+        this.password = credential;
     }
 }
@@ -2,13 +2,23 @@ import javax.swing.*;
 import javax.swing.border.*;
 import java.awt.*;
 import java.awt.geom.*;
-import java.util.List;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 
 public class UserDashboard extends JFrame {
     private FinanceManager financeManager;
     private RegularUser user;
-    private DefaultListModel<String> recordModel;
-    private JList<String> recordList;
+    private TransactionTableModel recordModel;
+    private JTable recordTable;
+    private JTextField searchField;
+    // Date window the table pages through; null unit shows all records
+    private ChronoUnit windowUnit;
+    private LocalDate windowStart;
+    private JLabel windowLabel;
+    private JButton previousButton;
+    private JButton nextButton;
     private JTextField amountField;
     private JComboBox<String> typeCombo;
     private JTextField descField;
@@ -16,6 +26,9 @@ public class UserDashboard extends JFrame {
     private JLabel balanceLabel;
     private JLabel incomeLabel;
     private JLabel expenseLabel;
+    private JLabel monthLabel;
+    // Queries and saves run here, off the EDT
+    private final UiScheduler scheduler = new UiScheduler(error -> showError(error.getMessage()));
 
     // Color scheme
     private Color primaryColor = new Color(103, 58, 183);  // Deep Purple
@@ -24,6 +37,30 @@ public class UserDashboard extends JFrame {
     private Color cardColor = Color.WHITE;
     private Color textColor = new Color(33, 33, 33);
 
+    // Most matches a search shows; newest first, so the cap cuts old ones
+    private static final int SEARCH_LIMIT = 500;
+    private static final DateTimeFormatter WINDOW_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    // Time spent on the EDT rebuilding the table, and off it computing the
+    // summary cards and filtered rows
+    private static final Metrics.Timer REFRESH_RECORDS_TIMER = Metrics.timer("ui.refreshRecords");
+    private static final Metrics.Timer REFRESH_SUMMARY_TIMER = Metrics.timer("ui.refreshSummary");
+    private static final Metrics.Timer FILTER_TIMER = Metrics.timer("ui.filter");
+
+    private static class Summary {
+        double income;
+        double expense;
+        double monthExpense;
+        double burnRate;
+    }
+
+    // What the table shows next: the records of a search or date window,
+    // or, with no subset, all of the user's records
+    private static class Filtered {
+        java.util.List<FinancialRecord> subset;
+        FinanceManager.UserRecords all;
+    }
+
     public UserDashboard(FinanceManager financeManager, RegularUser user) {
         super("FinanceTracker Pro - " + user.getUsername());
         this.financeManager = financeManager;
@@ -85,8 +122,18 @@ public class UserDashboard extends JFrame {
             }
         });
 
+        JButton importButton = createStyledButton("Import", primaryColor);
+        importButton.addActionListener(e -> importTransactions());
+
         userPanel.add(userLabel);
         userPanel.add(Box.createHorizontalStrut(20));
+        JButton exportButton = createStyledButton("Export", primaryColor);
+        exportButton.addActionListener(e -> exportTransactions());
+
+        userPanel.add(importButton);
+        userPanel.add(Box.createHorizontalStrut(10));
+        userPanel.add(exportButton);
+        userPanel.add(Box.createHorizontalStrut(10));
         userPanel.add(logoutButton);
 
         panel.add(userPanel, BorderLayout.EAST);
@@ -121,16 +168,18 @@ public class UserDashboard extends JFrame {
     }
 
     private JPanel createSummaryPanel() {
-        JPanel panel = new JPanel(new GridLayout(1, 3, 20, 0));
+        JPanel panel = new JPanel(new GridLayout(1, 4, 20, 0));
         panel.setOpaque(false);
 
         balanceLabel = createSummaryCard("Total Balance", "$0.00", primaryColor);
         incomeLabel = createSummaryCard("Total Income", "$0.00", new Color(76, 175, 80));
         expenseLabel = createSummaryCard("Total Expenses", "$0.00", new Color(244, 67, 54));
+        monthLabel = createSummaryCard("Spent This Month", "$0.00", accentColor);
 
         panel.add(balanceLabel);
         panel.add(incomeLabel);
         panel.add(expenseLabel);
+        panel.add(monthLabel);
 
         return panel;
     }
@@ -154,7 +203,7 @@ public class UserDashboard extends JFrame {
             }
         };
 
-        card.setPreferredSize(new Dimension(250, 100));
+        card.setPreferredSize(new Dimension(200, 100));
         card.setBorder(new EmptyBorder(20, 20, 20, 20));
         card.setLayout(new BoxLayout(card, BoxLayout.Y_AXIS));
 
@@ -239,32 +288,108 @@ public class UserDashboard extends JFrame {
         JLabel titleLabel = new JLabel("Recent Transactions");
         titleLabel.setFont(new Font("Segoe UI", Font.BOLD, 18));
         titleLabel.setForeground(primaryColor);
-        // Transaction list
-        recordModel = new DefaultListModel<>();
-        recordList = new JList<>(recordModel);
-        recordList.setCellRenderer(new DefaultListCellRenderer() {
+
+        // Filters the table on every keystroke from the search index
+        searchField = createStyledTextField("Search transactions");
+        searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            public void insertUpdate(javax.swing.event.DocumentEvent e) { applyFilter(); }
+            public void removeUpdate(javax.swing.event.DocumentEvent e) { applyFilter(); }
+            public void changedUpdate(javax.swing.event.DocumentEvent e) { applyFilter(); }
+        });
+        JPanel headerPanel = new JPanel(new BorderLayout(10, 10));
+        headerPanel.setOpaque(false);
+        headerPanel.add(titleLabel, BorderLayout.NORTH);
+        headerPanel.add(searchField, BorderLayout.CENTER);
+        headerPanel.add(createWindowPanel(), BorderLayout.SOUTH);
+
+        // Transaction table; rows are formatted only when painted. It stays
+        // empty until showDashboard() has the records read off the EDT.
+        recordModel = new TransactionTableModel();
+        recordTable = new JTable(recordModel);
+        recordTable.setDefaultRenderer(String.class, new javax.swing.table.DefaultTableCellRenderer() {
             @Override
-            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
-                JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+                JLabel label = (JLabel) super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
                 label.setBorder(new EmptyBorder(10, 10, 10, 10));
-                label.setFont(new Font("Segoe UI", Font.PLAIN, 14));
                 return label;
             }
         });
-        recordList.setBackground(cardColor);
-        recordList.setSelectionBackground(primaryColor.brighter());
-        recordList.setSelectionForeground(Color.WHITE);
-
-        JScrollPane scrollPane = new JScrollPane(recordList);
+        recordTable.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        recordTable.setRowHeight(40);
+        recordTable.setShowGrid(false);
+        recordTable.setFillsViewportHeight(true);
+        recordTable.setBackground(cardColor);
+        recordTable.setSelectionBackground(primaryColor.brighter());
+        recordTable.setSelectionForeground(Color.WHITE);
+        recordTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        recordTable.getTableHeader().setFont(new Font("Segoe UI", Font.BOLD, 14));
+        recordTable.getTableHeader().setReorderingAllowed(false);
+
+        JScrollPane scrollPane = new JScrollPane(recordTable);
         scrollPane.setBorder(null);
         scrollPane.setBackground(cardColor);
 
-        panel.add(titleLabel, BorderLayout.NORTH);
+        JButton deleteButton = createStyledButton("Delete Selected", new Color(239, 83, 80));
+        deleteButton.addActionListener(e -> deleteSelectedRecord());
+
+        panel.add(headerPanel, BorderLayout.NORTH);
         panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(deleteButton, BorderLayout.SOUTH);
+
+        return panel;
+    }
+
+    // Pages through history one day, week, month or year at a time
+    private JPanel createWindowPanel() {
+        JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        panel.setOpaque(false);
+
+        String[] windows = {"All", "Day", "Week", "Month", "Year"};
+        JComboBox<String> windowCombo = createStyledComboBox(windows);
+        previousButton = createStyledButton("<", primaryColor);
+        nextButton = createStyledButton(">", primaryColor);
+        windowLabel = new JLabel();
+        windowLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        windowLabel.setForeground(textColor);
+
+        windowCombo.addActionListener(e -> {
+            switch ((String) windowCombo.getSelectedItem()) {
+                case "Day": windowUnit = ChronoUnit.DAYS; break;
+                case "Week": windowUnit = ChronoUnit.WEEKS; break;
+                case "Month": windowUnit = ChronoUnit.MONTHS; break;
+                case "Year": windowUnit = ChronoUnit.YEARS; break;
+                default: windowUnit = null;
+            }
+            windowStart = windowUnit == null ? null : windowContaining(LocalDate.now());
+            applyFilter();
+        });
+        previousButton.addActionListener(e -> {
+            windowStart = windowStart.minus(1, windowUnit);
+            applyFilter();
+        });
+        nextButton.addActionListener(e -> {
+            windowStart = windowStart.plus(1, windowUnit);
+            applyFilter();
+        });
+        previousButton.setEnabled(false);
+        nextButton.setEnabled(false);
 
+        panel.add(windowCombo);
+        panel.add(previousButton);
+        panel.add(windowLabel);
+        panel.add(nextButton);
         return panel;
     }
 
+    private LocalDate windowContaining(LocalDate date) {
+        switch (windowUnit) {
+            case WEEKS: return date.with(DayOfWeek.MONDAY);
+            case MONTHS: return date.withDayOfMonth(1);
+            case YEARS: return date.withDayOfYear(1);
+            default: return date;
+        }
+    }
+
     private JPanel createFormRow(String labelText, JComponent component) {
         JPanel panel = new JPanel();
         panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
@@ -387,63 +512,242 @@ public class UserDashboard extends JFrame {
             }
 
             FinancialRecord record = new FinancialRecord(amount, type, description, category, user.getUsername());
-            financeManager.addRecord(record);
-            refreshRecords();
             clearInputFields();
-            showSuccess("Transaction added successfully");
+            scheduler.submit(() -> financeManager.addRecord(record), persisted -> {
+                persisted.whenComplete((saved, error) -> SwingUtilities.invokeLater(() -> {
+                    if (error != null) {
+                        showError("Transaction could not be saved: " + error.getMessage());
+                    }
+                }));
+                if (recordModel.isFiltered()) {
+                    applyFilter();
+                } else {
+                    loadRecords(recordModel::recordAdded);
+                }
+                refreshSummary();
+                showSuccess("Transaction added successfully");
+            });
         } catch (NumberFormatException e) {
             showError("Please enter a valid amount");
         }
     }
 
-    private void refreshRecords() {
-        recordModel.clear();
-        List<FinancialRecord> userRecords = financeManager.getUserRecords(user.getUsername());
-        double totalIncome = 0;
-        double totalExpense = 0;
-
-        for (FinancialRecord record : userRecords) {
-            String prefix = record.getType().equals("INCOME") ? "+" : "-";
-            String formattedAmount = String.format("$%.2f", record.getAmount());
-            String date = record.getDateTime().format(java.time.format.DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm"));
-            
-            recordModel.addElement(String.format("%s %s | %s | %s | %s", 
-                prefix, formattedAmount, record.getCategory(), record.getDescription(), date));
-            
-            if (record.getType().equals("INCOME")) {
-                totalIncome += record.getAmount();
+    private void deleteSelectedRecord() {
+        int row = recordTable.getSelectedRow();
+        if (row < 0) {
+            showError("Please select a transaction to delete");
+            return;
+        }
+
+        FinancialRecord record = recordModel.getRecord(row);
+        if (record == null || !showConfirmDialog("Delete this transaction?")) {
+            return;
+        }
+        scheduler.submit(() -> financeManager.deleteRecord(record.getId()), persisted -> {
+            persisted.whenComplete((deleted, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    showError("Transaction could not be deleted: " + error.getMessage());
+                }
+            }));
+            if (recordModel.isFiltered()) {
+                applyFilter();
             } else {
-                totalExpense += record.getAmount();
+                // Falls back to a full refresh if other saves have landed
+                // since the row was picked
+                loadRecords(records -> recordModel.recordDeleted(row, records));
             }
+            refreshSummary();
+        });
+    }
+
+    // A search looks through all records; otherwise the table shows the
+    // current date window, read from the time index, or everything. The
+    // rows are collected off the EDT and only the latest filter is shown.
+    private void applyFilter() {
+        boolean paging = windowUnit != null;
+        previousButton.setEnabled(paging);
+        nextButton.setEnabled(paging);
+        windowLabel.setText("");
+
+        String username = user.getUsername();
+        String query = searchField.getText().trim();
+        LocalDate from = windowStart;
+        LocalDate to = paging ? windowStart.plus(1, windowUnit) : null;
+        scheduler.submit("filter", () -> {
+            long start = System.nanoTime();
+            Filtered filtered = new Filtered();
+            if (!query.isEmpty()) {
+                filtered.subset = financeManager.search(username, query, SEARCH_LIMIT);
+            } else if (paging) {
+                filtered.subset = new java.util.ArrayList<>();
+                financeManager.getUserRecords(username, from.atStartOfDay(), to.atStartOfDay())
+                    .forEachRemaining(filtered.subset::add);
+            } else {
+                filtered.all = financeManager.getUserRecordsSnapshot(username);
+            }
+            FILTER_TIMER.recordSince(start);
+            return filtered;
+        }, filtered -> {
+            long start = System.nanoTime();
+            FinanceEvents.UiRefresh event = new FinanceEvents.UiRefresh();
+            event.begin();
+            if (query.isEmpty() && paging) {
+                windowLabel.setText(WINDOW_FORMAT.format(from) + " - " + WINDOW_FORMAT.format(to.minusDays(1)));
+            }
+            if (filtered.subset == null) {
+                recordModel.showAll(filtered.all);
+            } else {
+                recordModel.showRecords(filtered.subset);
+            }
+            REFRESH_RECORDS_TIMER.recordSince(start);
+            if (event.shouldCommit()) {
+                event.view = "refreshRecords";
+                event.rows = recordModel.getRowCount();
+                event.commit();
+            }
+        });
+    }
+
+    // In a sharded data directory the first read of the user loads their
+    // shard from disk, so the snapshot is taken off the EDT
+    private void loadRecords(java.util.function.Consumer<FinanceManager.UserRecords> show) {
+        String username = user.getUsername();
+        scheduler.submit("records", () -> financeManager.getUserRecordsSnapshot(username), show);
+    }
+
+    private void importTransactions() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+            "Bank exports (CSV, OFX, QFX)", "csv", "ofx", "qfx"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
         }
 
-        // Update summary cards with animations
-        updateSummaryLabel(balanceLabel, "Total Balance", totalIncome - totalExpense);
-        updateSummaryLabel(incomeLabel, "Total Income", totalIncome);
-        updateSummaryLabel(expenseLabel, "Total Expenses", totalExpense);
+        // Modeless, so the dashboard stays usable while the file streams in
+        TransactionImporter importer = new TransactionImporter(financeManager, user.getUsername());
+        JDialog dialog = new JDialog(this, "Importing " + chooser.getSelectedFile().getName(), false);
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        JLabel statusLabel = new JLabel("Reading file...");
+        statusLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        JButton cancelButton = createStyledButton("Cancel", new Color(239, 83, 80));
+        cancelButton.addActionListener(e -> {
+            importer.cancel();
+            cancelButton.setEnabled(false);
+            statusLabel.setText("Cancelling...");
+        });
+
+        JPanel content = new JPanel(new BorderLayout(10, 10));
+        content.setBorder(new EmptyBorder(20, 20, 20, 20));
+        content.add(statusLabel, BorderLayout.NORTH);
+        content.add(progressBar, BorderLayout.CENTER);
+        content.add(cancelButton, BorderLayout.SOUTH);
+        dialog.add(content);
+        dialog.setSize(400, 170);
+        dialog.setLocationRelativeTo(this);
+        dialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+        dialog.setVisible(true);
+
+        importer.start(chooser.getSelectedFile().toPath(), progress -> SwingUtilities.invokeLater(() -> {
+            progressBar.setValue(progress.percent());
+            if (cancelButton.isEnabled()) {
+                statusLabel.setText(String.format("%,d imported, %,d skipped", progress.imported, progress.rejected));
+            }
+        })).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            dialog.dispose();
+            refreshRecords();
+            if (error != null) {
+                showError("Import failed: " + error.getMessage());
+                return;
+            }
+            StringBuilder message = new StringBuilder(String.format("Imported %,d transactions", result.imported));
+            if (result.cancelled) {
+                message.append(" before the import was cancelled");
+            }
+            if (result.rejected > 0) {
+                message.append(String.format("%nSkipped %,d invalid rows:", result.rejected));
+                result.errors.stream().limit(5).forEach(line -> message.append('\n').append(line));
+            }
+            showSuccess(message.toString());
+        }));
+    }
+
+    private void exportTransactions() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setAcceptAllFileFilterUsed(false);
+        java.util.Map<javax.swing.filechooser.FileFilter, String> suffixes = new java.util.LinkedHashMap<>();
+        suffixes.put(new javax.swing.filechooser.FileNameExtensionFilter("CSV (*.csv)", "csv"), ".csv");
+        suffixes.put(new javax.swing.filechooser.FileNameExtensionFilter("CSV, gzip (*.csv.gz)", "gz"), ".csv.gz");
+        suffixes.put(new javax.swing.filechooser.FileNameExtensionFilter("Columnar (*.fcol)", "fcol"), ".fcol");
+        suffixes.put(new javax.swing.filechooser.FileNameExtensionFilter("Columnar, gzip (*.fcol.gz)", "gz"), ".fcol.gz");
+        suffixes.keySet().forEach(chooser::addChoosableFileFilter);
+        chooser.setSelectedFile(new java.io.File(user.getUsername() + "-transactions"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        // The extension picks the format; without one, use the selected filter's
+        java.nio.file.Path file = chooser.getSelectedFile().toPath();
+        String name = file.getFileName().toString().toLowerCase();
+        if (!name.endsWith(".csv") && !name.endsWith(".fcol") && !name.endsWith(".gz")) {
+            file = file.resolveSibling(file.getFileName() + suffixes.get(chooser.getFileFilter()));
+        }
+        java.nio.file.Path target = file;
+        scheduler.submit(null,
+            () -> TransactionExporter.export(financeManager, user.getUsername(), null, null, target,
+                TransactionExporter.formatOf(target), TransactionExporter.isGzip(target)),
+            count -> showSuccess(String.format("Exported %,d transactions to %s", count, target.getFileName())),
+            error -> showError("Export failed: " + error.getMessage()));
+    }
+
+    // Reloads the table with its current search or date window, if any
+    private void refreshRecords() {
+        applyFilter();
+        refreshSummary();
+    }
+
+    private void refreshSummary() {
+        String username = user.getUsername();
+        scheduler.submit("summary", () -> {
+            long start = System.nanoTime();
+            Summary summary = new Summary();
+            summary.income = financeManager.getTotalIncome(username);
+            summary.expense = financeManager.getTotalExpense(username);
+            // Month to date from the daily/monthly rollups, not a scan
+            LocalDate monthStart = LocalDate.now().withDayOfMonth(1);
+            summary.monthExpense = financeManager.getTotal(username, "EXPENSE", null,
+                monthStart, LocalDate.now().plusDays(1));
+            summary.burnRate = financeManager.getDailyBurnRate(username, 30);
+            REFRESH_SUMMARY_TIMER.recordSince(start);
+            return summary;
+        }, summary -> {
+            // Update summary cards with animations
+            updateSummaryLabel(balanceLabel, "Total Balance", summary.income - summary.expense);
+            updateSummaryLabel(incomeLabel, "Total Income", summary.income);
+            updateSummaryLabel(expenseLabel, "Total Expenses", summary.expense);
+            updateSummaryLabel(monthLabel, String.format("This Month ($%.2f/day)", summary.burnRate), summary.monthExpense);
+        });
     }
 
     private void updateSummaryLabel(JLabel label, String title, double amount) {
         String formattedAmount = String.format("$%.2f", amount);
-        SwingUtilities.invokeLater(() -> {
-            label.removeAll();
-            
-            JLabel titleLabel = new JLabel(title);
-            titleLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
-            titleLabel.setForeground(textColor);
-
-            JLabel amountLabel = new JLabel(formattedAmount);
-            amountLabel.setFont(new Font("Segoe UI", Font.BOLD, 24));
-            amountLabel.setForeground(amount >= 0 ? new Color(76, 175, 80) : new Color(244, 67, 54));
-
-            label.setLayout(new BoxLayout(label, BoxLayout.Y_AXIS));
-            label.add(titleLabel);
-            label.add(Box.createVerticalStrut(10));
-            label.add(amountLabel);
-            
-            label.revalidate();
-            label.repaint();
-        });
+        label.removeAll();
+
+        JLabel titleLabel = new JLabel(title);
+        titleLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        titleLabel.setForeground(textColor);
+
+        JLabel amountLabel = new JLabel(formattedAmount);
+        amountLabel.setFont(new Font("Segoe UI", Font.BOLD, 24));
+        amountLabel.setForeground(amount >= 0 ? new Color(76, 175, 80) : new Color(244, 67, 54));
+
+        label.setLayout(new BoxLayout(label, BoxLayout.Y_AXIS));
+        label.add(titleLabel);
+        label.add(Box.createVerticalStrut(10));
+        label.add(amountLabel);
+
+        label.revalidate();
+        label.repaint();
     }
 
     private void clearInputFields() {
@@ -471,5 +775,16 @@ public class UserDashboard extends JFrame {
     public void showDashboard() {
         setVisible(true);
         refreshRecords();
+        // Have the search index ready before the first keystroke
+        scheduler.submit(() -> {
+            financeManager.prepareSearch(user.getUsername());
+            return null;
+        }, ignored -> { });
+    }
+
+    @Override
+    public void dispose() {
+        scheduler.close();
+        super.dispose();
     }
-}
\ No newline at end of file
+}
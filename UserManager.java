@@ -1,99 +1,254 @@
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UserManager {
-    private List<User> users;
+    // Lock-free lookups for login and duplicate checks
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    // Same users in insertion order for getAllUsers() and users.dat;
+    // only touched under the manager's lock
+    private final Map<String, User> ordered = new LinkedHashMap<>();
+    private final String dataFile;
+    private final WriteBehind writeBehind;
+    private volatile Authenticator authenticator = new Pbkdf2Authenticator(this);
     private static final String USER_DATA_FILE = "users.dat";
+    private static final Metrics.Timer SAVE_TIMER = Metrics.timer("users.save");
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer("users.load");
+
+    private static UserManager shared;
+
+    // Managers still reachable; the users.* gauges total over them
+    private static final Set<UserManager> LIVE =
+        Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+        Metrics.gauge("users.count", () -> {
+            long total = 0;
+            synchronized (LIVE) {
+                for (UserManager manager : LIVE) {
+                    total += manager.users.size();
+                }
+            }
+            return total;
+        });
+        // Each data file counted once, however many managers share it
+        Metrics.gauge("users.bytes", () -> {
+            Set<String> files = new HashSet<>();
+            synchronized (LIVE) {
+                for (UserManager manager : LIVE) {
+                    files.add(manager.dataFile);
+                }
+            }
+            long total = 0;
+            for (String file : files) {
+                total += new File(file).length();
+            }
+            return total;
+        });
+    }
 
     public UserManager() {
-        this.users = new ArrayList<>();
+        this(USER_DATA_FILE);
+    }
+
+    // users.dat is loaded once per JVM; every login window, including the
+    // ones shown after a logout, uses the same manager
+    public static synchronized UserManager shared() {
+        if (shared == null) {
+            shared = new UserManager();
+        }
+        return shared;
+    }
+
+    public UserManager(String dataFile) {
+        this.dataFile = dataFile;
+        this.writeBehind = new WriteBehind("users", this::saveUsers);
         loadUsers();
-        
+
         // Add default admin if no users exist
-        if (users.isEmpty()) {
-            users.add(new AdminUser("admin", "admin123"));
-            users.add(new RegularUser("user", "user123"));
-            saveUsers();
+        boolean seeded = users.isEmpty();
+        if (seeded) {
+            put(new AdminUser("admin", "admin123"));
+            put(new RegularUser("user", "user123"));
+        }
+        // The defaults only reach users.dat once hashed, or once hashing
+        // has failed and a login will rehash them
+        CompletableFuture<Void> hashed = hashPlaintextCredentials();
+        if (seeded) {
+            hashed.whenComplete((done, error) -> writeBehind.requestFlush());
         }
+        LIVE.add(this);
     }
 
-    public void addUser(User user) {
-        users.add(user);
-        saveUsers();
+    // Accounts stored before passwords were hashed, and the defaults, are
+    // hashed in the background instead of waiting for their next login.
+    // That is one hash per account, queued behind each other, so it stays
+    // off the login pool; a login before its turn rehashes the account.
+    private CompletableFuture<Void> hashPlaintextCredentials() {
+        List<CompletableFuture<Boolean>> updates = new ArrayList<>();
+        for (User user : getAllUsers()) {
+            String credential = user.credential();
+            if (!PasswordHasher.isHashed(credential)) {
+                updates.add(authenticator.hashInBackground(credential)
+                    .thenApply(replacement -> updateCredential(user.getUsername(), credential, replacement)));
+            }
+        }
+        return CompletableFuture.allOf(updates.toArray(new CompletableFuture<?>[0]));
     }
 
-    public boolean deleteUser(String username) {
-        int initialSize = users.size();
-        users.removeIf(user -> user.getUsername().equals(username));
-        boolean wasRemoved = users.size() < initialSize;
-        if (wasRemoved) {
-            saveUsers();
+    // Mutations apply in memory immediately; users.dat is rewritten on the
+    // background writer and the future completes once it is on disk
+    public synchronized CompletableFuture<Void> addUser(User user) {
+        if (!put(user)) {
+            return CompletableFuture.completedFuture(null);
         }
-        return wasRemoved;
+        return writeBehind.requestFlush();
     }
 
-    public User getUser(String username) {
-        for (User user : users) {
-            if (user.getUsername().equals(username)) {
-                return user;
-            }
+    public synchronized CompletableFuture<Boolean> deleteUser(String username) {
+        if (users.remove(username) == null) {
+            return CompletableFuture.completedFuture(false);
         }
-        return null;
+        ordered.remove(username);
+        authenticator.invalidate(username);
+        return writeBehind.requestFlush().thenApply(v -> true);
+    }
+
+    public User getUser(String username) {
+        return username == null ? null : users.get(username);
     }
 
     public boolean authenticate(String username, String password) {
-        User user = getUser(username);
-        return user != null && user.authenticate(password);
+        return authenticator.authenticate(username, password);
     }
 
-    public List<User> getAllUsers() {
-        return new ArrayList<>(users);
+    // Completes off the calling thread, so the EDT can wait for it
+    public CompletableFuture<Boolean> authenticateAsync(String username, String password) {
+        return authenticator.authenticateAsync(username, password);
     }
 
-    private void saveUsers() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(
-                new FileOutputStream(USER_DATA_FILE))) {
-            oos.writeObject(users);
-        } catch (IOException e) {
-            System.err.println("Error saving users: " + e.getMessage());
+    public void setAuthenticator(Authenticator authenticator) {
+        this.authenticator = authenticator;
+    }
+
+    // Swaps a user's stored credential if it is still the one the caller
+    // checked, e.g. when a plaintext password is rehashed after a login
+    public synchronized boolean updateCredential(String username, String expected, String replacement) {
+        User user = users.get(username);
+        if (user == null || !expected.equals(user.credential())) {
+            return false;
+        }
+        user.setCredential(replacement);
+        writeBehind.requestFlush();
+        return true;
+    }
+
+    public synchronized List<User> getAllUsers() {
+        return new ArrayList<>(ordered.values());
+    }
+
+    // Keeps the first user registered under a name, as the old list scan did
+    private boolean put(User user) {
+        if (users.putIfAbsent(user.getUsername(), user) != null) {
+            return false;
         }
+        ordered.put(user.getUsername(), user);
+        return true;
     }
 
+    // Runs on the writer thread and persists the latest state, so a burst
+    // of mutations is saved once
+    private void saveUsers() throws IOException {
+        long start = System.nanoTime();
+        FinanceEvents.FileIo event = new FinanceEvents.FileIo();
+        event.begin();
+        List<User> snapshot = getAllUsers();
+        SnapshotFile.replace(Paths.get(dataFile), out -> {
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(snapshot);
+            oos.flush();
+        });
+        SAVE_TIMER.recordSince(start);
+        commit(event, "write", snapshot.size());
+    }
+
+    // Falls back to a previous users.dat if the newest is damaged. If none
+    // can be read the manager refuses to start rather than write the
+    // default accounts over them.
     @SuppressWarnings("unchecked")
-    private void loadUsers() {
-        if (!new File(USER_DATA_FILE).exists()) {
+    private synchronized void loadUsers() {
+        Path file = Paths.get(dataFile);
+        if (SnapshotFile.generations(file).isEmpty()) {
             return;
         }
-        
-        try (ObjectInputStream ois = new ObjectInputStream(
-                new FileInputStream(USER_DATA_FILE))) {
-            users = (List<User>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error loading users: " + e.getMessage());
-            users = new ArrayList<>();
+
+        long start = System.nanoTime();
+        FinanceEvents.FileIo event = new FinanceEvents.FileIo();
+        event.begin();
+        List<User> loaded;
+        try {
+            loaded = SnapshotFile.readNewest(file, in -> {
+                try {
+                    return (List<User>) new ObjectInputStream(in).readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("Error loading users: " + e.getMessage(), e);
+        }
+        for (User user : loaded) {
+            put(user);
+        }
+        LOAD_TIMER.recordSince(start);
+        commit(event, "read", users.size());
+    }
+
+    private void commit(FinanceEvents.FileIo event, String operation, int entries) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.file = dataFile;
+            event.entries = entries;
+            event.bytes = new File(dataFile).length();
+            event.commit();
         }
     }
 
-    public boolean addUser(String username, String password, String userType) {
+    // The password is hashed on the authenticator's pool; the user appears
+    // in the manager once that is done and the future completes once saved
+    public CompletableFuture<Boolean> addUser(String username, String password, String userType) {
         if (getUser(username) != null) {
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
-        
-        User newUser;
-        if (userType.equals("ADMIN")) {
-            newUser = new AdminUser(username, password);
-        } else {
-            newUser = new RegularUser(username, password);
+
+        return authenticator.hash(password).thenCompose(credential -> {
+            User newUser;
+            if (userType.equals("ADMIN")) {
+                newUser = new AdminUser(username, credential);
+            } else {
+                newUser = new RegularUser(username, credential);
+            }
+            return store(newUser);
+        });
+    }
+
+    private synchronized CompletableFuture<Boolean> store(User user) {
+        if (!put(user)) {
+            return CompletableFuture.completedFuture(false);
         }
-        
-        users.add(newUser);
-        saveUsers();
-        return true;
+        return writeBehind.requestFlush().thenApply(v -> true);
     }
 }
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Single-writer background persistence. Callers change their in-memory
+// state, then call requestFlush(); requests that arrive while a flush is
+// queued or running are coalesced, so a burst of N mutations costs one or
+// two flushes instead of N. Each request's future completes once a flush
+// that started after it has finished, or fails with that flush's error.
+//
+// Writers that haven't been closed are flushed by a single shutdown hook.
+public class WriteBehind {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final long IDLE_SECONDS = 30;
+    private static final Set<WriteBehind> OPEN = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(WriteBehind::flushAllOnShutdown, "write-behind-shutdown"));
+    }
+
+    public interface Flush {
+        void run() throws IOException;
+    }
+
+    private final String name;
+    private final Flush flush;
+    private final ExecutorService writer;
+    private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+    private boolean scheduled;
+    private boolean closed;
+
+    public WriteBehind(String name, Flush flush) {
+        this.name = name;
+        this.flush = flush;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, IDLE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, name + "-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        // A sharded data directory has a writer per shard; don't keep a thread each
+        executor.allowCoreThreadTimeOut(true);
+        this.writer = executor;
+        OPEN.add(this);
+    }
+
+    public synchronized CompletableFuture<Void> requestFlush() {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException(name + " is closed"));
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        waiting.add(done);
+        if (!scheduled) {
+            scheduled = true;
+            writer.execute(this::drain);
+        }
+        return done;
+    }
+
+    // Blocks until everything requested so far is on disk
+    public void flushAndWait() throws IOException {
+        try {
+            requestFlush().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing " + name, e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    // Flushes what was requested so far and stops the writer; later
+    // requests fail
+    public void close() throws IOException {
+        try {
+            flushAndWait();
+        } finally {
+            synchronized (this) {
+                closed = true;
+            }
+            OPEN.remove(this);
+            writer.shutdown();
+        }
+    }
+
+    private void drain() {
+        List<CompletableFuture<Void>> batch;
+        synchronized (this) {
+            batch = waiting;
+            waiting = new ArrayList<>();
+            scheduled = false;
+        }
+        try {
+            flush.run();
+            batch.forEach(done -> done.complete(null));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error persisting " + name + ": " + e.getMessage());
+            batch.forEach(done -> done.completeExceptionally(e));
+        }
+    }
+
+    // All writers flush in parallel, within one shared timeout
+    private static void flushAllOnShutdown() {
+        List<WriteBehind> writers = new ArrayList<>(OPEN);
+        List<CompletableFuture<Void>> flushes = new ArrayList<>();
+        for (WriteBehind writer : writers) {
+            flushes.add(writer.requestFlush());
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT_SECONDS);
+        for (int i = 0; i < writers.size(); i++) {
+            try {
+                flushes.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | TimeoutException e) {
+                System.err.println("Error flushing " + writers.get(i).name + " on shutdown: " + e.getMessage());
+            }
+        }
+    }
+}
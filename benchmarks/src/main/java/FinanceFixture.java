@@ -0,0 +1,69 @@
+import finance.bench.Fixture;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Builds the benchmark data sets the way FinanceBenchmark does and hands
+// the JMH benchmarks in finance.bench a view of the managers
+public class FinanceFixture implements Fixture {
+    @Override
+    public Finance finance(Path dir, int recordCount, int userCount) throws IOException {
+        String dataFile = dir.resolve("records-" + recordCount + "-" + userCount + ".dat").toString();
+        FinanceBenchmark.writeRecordSnapshot(dataFile, recordCount, userCount);
+        FinanceManager manager = new FinanceManager(dataFile);
+        String[] names = FinanceBenchmark.usernames(userCount);
+        LocalDateTime now = LocalDateTime.now();
+        return new Finance() {
+            @Override
+            public String username(int user) {
+                return names[user];
+            }
+
+            @Override
+            public List<?> getUserRecords(String username) {
+                return manager.getUserRecords(username);
+            }
+
+            @Override
+            public double getTotalIncome(String username) {
+                return manager.getTotalIncome(username);
+            }
+
+            @Override
+            public double getTotalExpense(String username) {
+                return manager.getTotalExpense(username);
+            }
+
+            @Override
+            public CompletableFuture<?> addRecord(int i) {
+                return manager.addRecord(FinanceBenchmark.record(i, userCount, now));
+            }
+        };
+    }
+
+    @Override
+    public Users users(Path dir, int userCount) throws IOException {
+        String dataFile = dir.resolve("users-" + userCount + ".dat").toString();
+        String[] names = FinanceBenchmark.usernames(userCount);
+        FinanceBenchmark.writeUsers(dataFile, names);
+        UserManager manager = new UserManager(dataFile);
+        return new Users() {
+            @Override
+            public String username(int user) {
+                return names[user];
+            }
+
+            @Override
+            public Object getUser(String username) {
+                return manager.getUser(username);
+            }
+
+            @Override
+            public boolean authenticate(String username) {
+                return manager.authenticate(username, FinanceBenchmark.PASSWORD);
+            }
+        };
+    }
+}
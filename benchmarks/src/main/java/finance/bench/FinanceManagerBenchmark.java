@@ -0,0 +1,87 @@
+package finance.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// FinanceManager reads and writes over a snapshot of `records` records
+// spread over `users` users; each call goes to the next user in turn.
+// Throughput and sampled latency come from the two modes, allocation per
+// call from -prof gc.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FinanceManagerBenchmark {
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int records;
+
+    @Param({"10", "1000", "100000"})
+    public int users;
+
+    private Path dir;
+    private Fixture.Finance finance;
+    private int user;
+    private int added;
+    // The journal flushes in order; once the last add is durable, all are
+    private CompletableFuture<?> lastAdd;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("finance-jmh");
+        finance = Fixture.load().finance(dir, records, users);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (lastAdd != null) {
+            lastAdd.join();
+        }
+        Fixture.delete(dir);
+    }
+
+    private String nextUser() {
+        user = user + 1 == users ? 0 : user + 1;
+        return finance.username(user);
+    }
+
+    @Benchmark
+    public List<?> getUserRecords() {
+        return finance.getUserRecords(nextUser());
+    }
+
+    @Benchmark
+    public double getTotalIncome() {
+        return finance.getTotalIncome(nextUser());
+    }
+
+    @Benchmark
+    public double getTotalExpense() {
+        return finance.getTotalExpense(nextUser());
+    }
+
+    // Grows the data set by one record per call, as the app does
+    @Benchmark
+    public CompletableFuture<?> addRecord() {
+        lastAdd = finance.addRecord(added++);
+        return lastAdd;
+    }
+}
@@ -0,0 +1,63 @@
+package finance.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+// The app lives in the default package, which JMH won't generate benchmarks
+// for and named packages can't import from. FinanceFixture, in the default
+// package, implements this once per trial; the benchmarks call through it,
+// and the single implementation keeps the calls monomorphic.
+public interface Fixture {
+    // A FinanceManager over a fresh snapshot of `records` records spread
+    // round-robin over `users` users
+    Finance finance(Path dir, int records, int users) throws IOException;
+
+    // A UserManager over a users.dat of `users` accounts sharing one
+    // password, hashed at the current cost
+    Users users(Path dir, int users) throws IOException;
+
+    interface Finance {
+        String username(int user);
+
+        List<?> getUserRecords(String username);
+
+        double getTotalIncome(String username);
+
+        double getTotalExpense(String username);
+
+        // Adds the i-th generated record; returns the journal's future
+        CompletableFuture<?> addRecord(int i);
+    }
+
+    interface Users {
+        String username(int user);
+
+        Object getUser(String username);
+
+        // With the account's password
+        boolean authenticate(String username);
+    }
+
+    static Fixture load() {
+        try {
+            return (Fixture) Class.forName("FinanceFixture").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("FinanceFixture is not on the class path", e);
+        }
+    }
+
+    // Removes a trial's data directory
+    static void delete(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
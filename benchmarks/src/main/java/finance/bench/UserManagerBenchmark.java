@@ -0,0 +1,64 @@
+package finance.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// UserManager lookups and logins over `users` accounts, cycling through
+// them. A login is hashed once per account and then answered from the
+// session cache, so with many accounts the warmup decides how many of the
+// measured calls hit it.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserManagerBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int users;
+
+    private Path dir;
+    private Fixture.Users manager;
+    private int user;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("finance-jmh");
+        manager = Fixture.load().users(dir, users);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixture.delete(dir);
+    }
+
+    private String nextUser() {
+        user = user + 1 == users ? 0 : user + 1;
+        return manager.username(user);
+    }
+
+    @Benchmark
+    public Object getUser() {
+        return manager.getUser(nextUser());
+    }
+
+    @Benchmark
+    public boolean authenticate() {
+        return manager.authenticate(nextUser());
+    }
+}